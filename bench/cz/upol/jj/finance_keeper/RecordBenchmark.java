@@ -0,0 +1,150 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures the main operations of ListOfRecords on generated data sets.
+ * <p>
+ * Every operation gets a few warm-up runs before the measured ones, its input is prepared outside of the measured
+ * time and results are reported as the median and the best run. Run it with the sizes to measure as arguments:
+ * <pre>
+ * javac -encoding UTF-8 -d out/bench src/cz/upol/jj/finance_keeper/*.java bench/cz/upol/jj/finance_keeper/*.java
+ * java -cp out/bench cz.upol.jj.finance_keeper.RecordBenchmark 10000 100000 1000000
+ * </pre>
+ */
+public class RecordBenchmark {
+    private static final long seed = 42;
+    private static final int warmupRuns = 3;
+    private static final int measuredRuns = 7;
+
+    private static final LocalDate filterFrom = SyntheticRecordGenerator.lastDate.minusMonths(3);
+    private static final BigDecimal amountFrom = BigDecimal.valueOf(-1000);
+
+    // Keeps results alive so that the measured work cannot be optimized away
+    private static volatile long sink;
+
+    private interface Operation {
+        long run(ListOfRecords records) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length == 0 ? new int[]{10_000, 100_000, 1_000_000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        // The saved file is split into partitions, so it gets a directory of its own
+        Path directory = Files.createTempDirectory("finance_keeper_bench");
+        Path file = directory.resolve("saved_data");
+        try {
+            System.out.printf("%-20s %10s %12s %12s%n", "operace", "záznamů", "medián [ms]", "nejlepší [ms]");
+            for (int size : sizes) {
+                RunAll(new SyntheticRecordGenerator(seed).Generate(size), file);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : files.toList()) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void RunAll(ListOfRecords data, Path file) throws IOException {
+        Measure("OrderByDate", data, true, records -> {
+            records.OrderByDate(true);
+            return records.size();
+        });
+        Measure("OrderByAmount", data, true, records -> {
+            records.OrderByAmount(true);
+            return records.size();
+        });
+        Measure("FilterByDate", data, true, records -> {
+            records.FilterByDate(filterFrom, LocalDate.MAX);
+            return records.size();
+        });
+        Measure("FilterByAmount", data, true, records -> {
+            records.FilterByAmount(amountFrom, BigDecimal.ZERO);
+            return records.size();
+        });
+        Measure("printTotalAmount", data, false, records -> {
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                records.printTotalAmount();
+            } finally {
+                System.setOut(console);
+            }
+            return records.size();
+        });
+        Measure("WriteToFile", data, false, records -> {
+            records.WriteToFile(file.toString());
+            return Files.size(file);
+        });
+        data.WriteToFile(file.toString());
+        Measure("ReadFromFile", data, false, records -> {
+            ListOfRecords loaded = new ListOfRecords();
+            loaded.ReadFromFile(file.toString());
+            return loaded.size();
+        });
+        Measure("ReadFromFile+LoadAll", data, false, records -> {
+            ListOfRecords loaded = new ListOfRecords();
+            loaded.ReadFromFile(file.toString());
+            loaded.LoadAll();
+            return loaded.size();
+        });
+        Measure("StreamingQuery", data, false, records -> new StreamingQuery(file.toString())
+                .FilterByDate(filterFrom, LocalDate.MAX)
+                .Aggregate()
+                .count());
+        Measure("StreamingQuery+Order", data, false, records -> new StreamingQuery(file.toString(), 10_000)
+                .OrderByAmount(true)
+                .ForEach(r -> sink++));
+
+        // The archive lies in the directory of the saved file, so it gets deleted with it
+        Path archive = file.resolveSibling("archive");
+        Measure("ExportArchive", data, false, records -> records.ExportArchive(archive.toString()));
+        Measure("ImportArchive", data, false, records -> new ListOfRecords().ImportArchive(archive.toString()));
+    }
+
+    /**
+     * Runs an operation repeatedly and prints its timings
+     *
+     * @param name     Name of the operation
+     * @param data     The records to run the operation on
+     * @param mutating Whether the operation changes the records, each run then gets a fresh copy
+     * @param op       The operation
+     */
+    private static void Measure(String name, ListOfRecords data, boolean mutating, Operation op) throws IOException {
+        List<Long> times = new ArrayList<>();
+
+        for (int run = 0; run < warmupRuns + measuredRuns; run++) {
+            ListOfRecords input = data;
+            if (mutating) {
+                input = new ListOfRecords();
+                input.addAll(data);
+                input.OrderByDate(false);
+            }
+
+            long start = System.nanoTime();
+            sink += op.run(input);
+            long elapsed = System.nanoTime() - start;
+
+            if (run >= warmupRuns)
+                times.add(elapsed);
+        }
+
+        times.sort(null);
+        System.out.printf("%-20s %10d %12.3f %12.3f%n", name, data.size(), times.get(times.size() / 2) / 1e6,
+                times.get(0) / 1e6);
+    }
+}
@@ -0,0 +1,85 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Generates realistic looking records for benchmarks, always the same ones for the same seed and count.
+ * <p>
+ * Every month gets a salary and a rent, the rest are expenses with reasons drawn from a short list where a few
+ * reasons are much more common than others, amounts skewed towards small values and more spending in December.
+ */
+public class SyntheticRecordGenerator {
+    public static final LocalDate lastDate = LocalDate.of(2024, 12, 31);
+
+    private static final String[] reasons = {"Potraviny", "Nákupy", "Restaurace", "Doprava", "Benzín", "Drogerie",
+            "Oblečení", "Kino", "Dárky", "Lékárna", "Elektřina", "Plyn", "Internet", "Telefon", "Pojištění", "Dovolená",
+            "Opravy", "Knihy", "Sport", "Kadeřník"};
+
+    private final SplittableRandom random;
+
+    /**
+     * Initializes a generator
+     *
+     * @param seed The seed of the random number generator
+     */
+    public SyntheticRecordGenerator(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Generates records spread over whole months ending with 'lastDate', in ascending order of their dates
+     *
+     * @param count The number of records to generate
+     * @return The records
+     */
+    public ListOfRecords Generate(int count) {
+        ListOfRecords records = new ListOfRecords();
+        records.ensureCapacity(count);
+
+        // Around 60 records a month, but at least a year of history
+        int months = Math.max(12, count / 60);
+        LocalDate firstMonth = lastDate.withDayOfMonth(1).minusMonths(months - 1);
+
+        for (int month = 0; month < months && records.size() < count; month++) {
+            LocalDate monthStart = firstMonth.plusMonths(month);
+
+            records.add(new Record(monthStart, "Výplata", BigDecimal.valueOf(30000 + random.nextInt(20000))));
+            if (records.size() < count)
+                records.add(new Record(monthStart.plusDays(9), "Nájem", BigDecimal.valueOf(-12000)));
+
+            int expenses = (count - records.size()) / (months - month);
+            if (monthStart.getMonthValue() == 12)
+                expenses += expenses / 2;
+            expenses = Math.min(expenses, count - records.size());
+
+            for (int i = 0; i < expenses; i++) {
+                LocalDate date = monthStart.plusDays(random.nextInt(monthStart.lengthOfMonth()));
+                records.add(new Record(date, Reason(), Expense()));
+            }
+        }
+        records.OrderByDate(false);
+        return records;
+    }
+
+    // Zipf-like choice, the first reasons are picked far more often than the last ones
+    private String Reason() {
+        double u = random.nextDouble();
+        return reasons[(int) (reasons.length * u * u * u)];
+    }
+
+    // Log-normal amount in whole crowns with hundredths, mostly tens to hundreds, now and then thousands
+    private BigDecimal Expense() {
+        double amount = Math.exp(5.0 + 1.2 * Gaussian());
+        long cents = Math.max(100, Math.min(10_000_000L, Math.round(amount * 100)));
+        return BigDecimal.valueOf(-cents, 2);
+    }
+
+    private double Gaussian() {
+        // Box-Muller transform, SplittableRandom does not provide nextGaussian before Java 17
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(2.0 * Math.PI * u2);
+    }
+}
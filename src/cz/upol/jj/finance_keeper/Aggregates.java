@@ -0,0 +1,87 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.util.TreeMap;
+
+/**
+ * Running totals of a ListOfRecords, updated with every added or removed record instead of being recomputed.
+ * <p>
+ * Sums are kept as exact BigDecimals. Minimum and maximum come from a sorted count of the amounts, so they survive
+ * removals in logarithmic time.
+ */
+public class Aggregates implements RecordIndex {
+    private BigDecimal total = BigDecimal.ZERO;
+    private BigDecimal income = BigDecimal.ZERO;
+    private BigDecimal expenses = BigDecimal.ZERO;
+    private int count = 0;
+    private final TreeMap<BigDecimal, Integer> amounts = new TreeMap<>();
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    /**
+     * @return The sum of all positive amounts
+     */
+    public BigDecimal getIncome() {
+        return income;
+    }
+
+    /**
+     * @return The sum of all negative amounts (a negative number)
+     */
+    public BigDecimal getExpenses() {
+        return expenses;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return The smallest amount, null if there are no records
+     */
+    public BigDecimal getMin() {
+        return amounts.isEmpty() ? null : amounts.firstKey();
+    }
+
+    /**
+     * @return The largest amount, null if there are no records
+     */
+    public BigDecimal getMax() {
+        return amounts.isEmpty() ? null : amounts.lastKey();
+    }
+
+    @Override
+    public void added(Record r) {
+        BigDecimal amount = r.getAmount();
+        total = total.add(amount);
+        if (amount.signum() > 0)
+            income = income.add(amount);
+        else
+            expenses = expenses.add(amount);
+        count++;
+        amounts.merge(amount, 1, Integer::sum);
+    }
+
+    @Override
+    public void removed(Record r) {
+        BigDecimal amount = r.getAmount();
+        total = total.subtract(amount);
+        if (amount.signum() > 0)
+            income = income.subtract(amount);
+        else
+            expenses = expenses.subtract(amount);
+        count--;
+        amounts.computeIfPresent(amount, (key, amountCount) -> amountCount == 1 ? null : amountCount - 1);
+    }
+
+    @Override
+    public void cleared() {
+        total = BigDecimal.ZERO;
+        income = BigDecimal.ZERO;
+        expenses = BigDecimal.ZERO;
+        count = 0;
+        amounts.clear();
+    }
+}
@@ -0,0 +1,166 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sums of amounts by day in a Fenwick tree (binary indexed tree), so the balance as of any date and the sum of any
+ * range of dates take O(log d) time for 'd' days covered, as does adding or removing a record.
+ * <p>
+ * The tree covers a continuous range of epoch days that grows (to at least twice its size) when a record falls
+ * outside of it, the tree is then rebuilt in linear time. Sums are kept as exact BigDecimals.
+ */
+public class BalanceIndex implements RecordIndex {
+    private static final int initialCapacity = 1024;
+
+    // Epoch day of position 1 of the tree
+    private long firstDay = 0;
+    private int capacity = 0;
+    // Sum of every day, index 0 is not used
+    private BigDecimal[] days = new BigDecimal[1];
+    private BigDecimal[] tree = new BigDecimal[1];
+    private BigDecimal total = BigDecimal.ZERO;
+
+    @Override
+    public void added(Record r) {
+        long day = r.getDate().toEpochDay();
+        Cover(day, day);
+        Update(day, r.getAmount());
+    }
+
+    @Override
+    public void addedAll(Collection<? extends Record> records) {
+        if (records.isEmpty())
+            return;
+
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (Record r : records) {
+            long day = r.getDate().toEpochDay();
+            min = Math.min(min, day);
+            max = Math.max(max, day);
+        }
+        Cover(min, max);
+
+        // A big batch is summed by days and the tree built again, that is cheaper than updating it record by record
+        if (records.size() < capacity / 16) {
+            for (Record r : records) {
+                Update(r.getDate().toEpochDay(), r.getAmount());
+            }
+            return;
+        }
+
+        for (Record r : records) {
+            int position = Position(r.getDate().toEpochDay());
+            days[position] = days[position].add(r.getAmount());
+            total = total.add(r.getAmount());
+        }
+        Rebuild();
+    }
+
+    @Override
+    public void removed(Record r) {
+        Update(r.getDate().toEpochDay(), r.getAmount().negate());
+    }
+
+    @Override
+    public void cleared() {
+        firstDay = 0;
+        capacity = 0;
+        days = new BigDecimal[1];
+        tree = new BigDecimal[1];
+        total = BigDecimal.ZERO;
+    }
+
+    /**
+     * @param date A date
+     * @return The sum of all records up to the date (inclusive)
+     */
+    public BigDecimal getBalanceAsOf(LocalDate date) {
+        long day = date.toEpochDay();
+        if (capacity == 0 || day < firstDay)
+            return BigDecimal.ZERO;
+        if (day >= firstDay + capacity)
+            return total;
+        return Prefix(Position(day));
+    }
+
+    /**
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return The sum of the records between the dates
+     */
+    public BigDecimal getSumBetween(LocalDate from, LocalDate to) {
+        if (!from.isBefore(to))
+            return BigDecimal.ZERO;
+        return getBalanceAsOf(to.minusDays(1)).subtract(getBalanceAsOf(from));
+    }
+
+    /**
+     * @return The sum of all records
+     */
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    private int Position(long day) {
+        return (int) (day - firstDay) + 1;
+    }
+
+    private void Update(long day, BigDecimal amount) {
+        int position = Position(day);
+        days[position] = days[position].add(amount);
+        for (int i = position; i <= capacity; i += i & -i) {
+            tree[i] = tree[i].add(amount);
+        }
+        total = total.add(amount);
+    }
+
+    private BigDecimal Prefix(int position) {
+        BigDecimal sum = BigDecimal.ZERO;
+        for (int i = position; i > 0; i -= i & -i) {
+            sum = sum.add(tree[i]);
+        }
+        return sum;
+    }
+
+    // Makes the tree cover a range of days, keeping the sums of the days already covered
+    private void Cover(long minDay, long maxDay) {
+        if (capacity > 0 && minDay >= firstDay && maxDay < firstDay + capacity)
+            return;
+
+        long newFirst = capacity == 0 ? minDay : Math.min(firstDay, minDay);
+        long newLast = capacity == 0 ? maxDay : Math.max(firstDay + capacity - 1, maxDay);
+        long needed = newLast - newFirst + 1;
+        long newCapacity = Math.max(needed, Math.max(initialCapacity, 2L * capacity));
+        if (newCapacity >= Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Dates of the records span too many days");
+
+        // The room to grow goes to the side that needed it
+        if (capacity > 0 && minDay < firstDay)
+            newFirst = newLast - newCapacity + 1;
+
+        BigDecimal[] newDays = new BigDecimal[(int) newCapacity + 1];
+        Arrays.fill(newDays, BigDecimal.ZERO);
+        if (capacity > 0)
+            System.arraycopy(days, 1, newDays, (int) (firstDay - newFirst) + 1, capacity);
+
+        firstDay = newFirst;
+        capacity = (int) newCapacity;
+        days = newDays;
+        tree = new BigDecimal[capacity + 1];
+        Rebuild();
+    }
+
+    // Builds the tree from the sums of days in linear time
+    private void Rebuild() {
+        System.arraycopy(days, 1, tree, 1, capacity);
+        tree[0] = BigDecimal.ZERO;
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity)
+                tree[parent] = tree[parent].add(tree[i]);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Runs a script of requests against a saved file without the menu, for automated use.
+ * <p>
+ * Requests are those of the RecordServer, one per line; blank lines and lines starting with '#' are skipped. Every
+ * response ends with a line starting with 'OK' or 'ERR' and records are written as 'id;D.M.RRRR;amount;reason' lines:
+ * <ul>
+ *     <li>ADD D.M.RRRR;amount;reason - adds a record, responds with its id</li>
+ *     <li>REMOVE id - removes a record</li>
+ *     <li>LIST - all records of the view in its order, responds with their count</li>
+ *     <li>BALANCE [D.M.RRRR] - the total amount of the view, or the balance of all records as of a date</li>
+ *     <li>ORDER DATE|AMOUNT ASC|DESC - orders the records</li>
+ *     <li>FILTER DATE from to | FILTER AMOUNT from to | FILTER INCOME | FILTER EXPENSES | FILTER REASON text - adds a
+ *     filter to the view (bounds are inclusive, '-' leaves one out)</li>
+ *     <li>CLEAR - removes all filters</li>
+ *     <li>IMPORT path - imports a CSV file, responds with the numbers of imported and rejected rows</li>
+ *     <li>EXPORT path - writes the records of the view to a CSV file in their order</li>
+ *     <li>ARCHIVE path - writes the records of the view to a compressed archive ordered by date</li>
+ *     <li>UNARCHIVE path - adds the records of an archive, responds with their count</li>
+ *     <li>REPORT M.RRRR M.RRRR - totals by month and reason as 'M.RRRR;count;total;min;max;reason' lines</li>
+ * </ul>
+ * Nothing gets rendered along the way and the changes are not written to the journal one by one: the saved file is
+ * rewritten once, when the runner is closed, and only if something changed.
+ */
+public class BatchRunner implements Closeable {
+    private final String filename;
+    private final ListOfRecords records = new ListOfRecords();
+    private final RecordView view = new RecordView(records);
+    private final PrintWriter out;
+
+    private Requests.Order order = new Requests.Order(false, true);
+    private boolean changed = false;
+    private int failureCount = 0;
+
+    /**
+     * Reads a saved file, partitions of older years are read only when a request needs them
+     *
+     * @param filename The name of the saved file
+     * @param out      Where the responses get written
+     * @throws IOException
+     */
+    public BatchRunner(String filename, PrintWriter out) throws IOException {
+        this.filename = filename;
+        this.out = out;
+
+        try {
+            records.ReadFromFile(filename);
+        } catch (FileNotFoundException | NoSuchFileException exception) {
+            // A new saved file gets created when the runner is closed
+        }
+        ApplyOrder();
+    }
+
+    /**
+     * @return Number of requests that failed so far
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Runs all requests read from a reader
+     *
+     * @param script The requests, one per line
+     * @throws IOException When the script cannot be read
+     */
+    public void Run(BufferedReader script) throws IOException {
+        String request;
+        while ((request = script.readLine()) != null) {
+            Run(request);
+        }
+    }
+
+    /**
+     * Runs requests one after another
+     *
+     * @param requests The requests
+     */
+    public void Run(List<String> requests) {
+        for (String request : requests) {
+            Run(request);
+        }
+    }
+
+    /**
+     * Runs a single request, its failure is reported as an 'ERR' line
+     *
+     * @param request The request
+     */
+    public void Run(String request) {
+        String line = request.strip();
+        if (line.isEmpty() || line.startsWith("#"))
+            return;
+
+        try {
+            Execute(line);
+        } catch (IllegalArgumentException | DateTimeParseException exception) {
+            Fail("Špatně zadaný požadavek: " + line);
+        } catch (IOException | UncheckedIOException exception) {
+            Fail("Chyba při práci se souborem.");
+        }
+    }
+
+    private void Fail(String message) {
+        failureCount++;
+        out.println("ERR " + message);
+    }
+
+    private void Execute(String request) throws IOException {
+        String[] parts = Requests.Split(request);
+        String argument = parts[1];
+
+        switch (parts[0]) {
+            case "ADD" -> {
+                Record r = Requests.ParseRecord(argument);
+                records.add(r);
+                changed = true;
+                out.println("OK " + r.getId());
+            }
+            case "REMOVE" -> Remove(Long.parseLong(argument));
+            case "LIST" -> ListAll();
+            case "BALANCE" -> {
+                BigDecimal balance = argument.isEmpty() ? Balance()
+                        : records.getBalanceAsOf(TextCodec.ParseDate(argument));
+                out.println("OK " + balance.toPlainString());
+            }
+            case "ORDER" -> {
+                order = Requests.ParseOrder(argument);
+                ApplyOrder();
+                out.println("OK");
+            }
+            case "FILTER" -> {
+                Requests.ParseFilter(argument).ApplyTo(view);
+                out.println("OK");
+            }
+            case "CLEAR" -> {
+                view.RemoveFilters();
+                out.println("OK");
+            }
+            case "IMPORT" -> Import(argument);
+            case "EXPORT" -> {
+                List<Record> shown = Shown();
+                CsvExporter.Export(Path.of(argument), shown);
+                out.println("OK " + shown.size());
+            }
+            case "ARCHIVE" -> {
+                List<Record> shown = Shown();
+                RecordArchive.Export(Path.of(argument), shown);
+                out.println("OK " + shown.size());
+            }
+            case "UNARCHIVE" -> {
+                long count = records.ImportArchive(argument);
+                changed |= count > 0;
+                out.println("OK " + count);
+            }
+            case "REPORT" -> Report(argument);
+            default -> Fail("Neznámý požadavek: " + parts[0]);
+        }
+    }
+
+    private void Remove(long id) throws IOException {
+        Record r = records.FindById(id);
+        // The record may be in a partition that has not been read yet
+        if (r == null && records.isPartiallyLoaded()) {
+            records.LoadAll();
+            r = records.FindById(id);
+        }
+        if (r == null) {
+            Fail("Neexistující záznam " + id);
+            return;
+        }
+
+        records.RemoveById(id);
+        changed = true;
+        out.println("OK");
+    }
+
+    private void ApplyOrder() {
+        if (order.byAmount())
+            records.OrderByAmount(order.desc());
+        else
+            records.OrderByDate(order.desc());
+    }
+
+    // A filtered view has read the partitions it needs, all of them are needed without a filter. Added records
+    // leave the collection in no particular order, so the order gets copied from its index again.
+    private List<Record> Shown() throws IOException {
+        if (!view.isFilterActive())
+            records.LoadAll();
+        if (records.getOrdering() == null)
+            ApplyOrder();
+        return view.getRecords();
+    }
+
+    private BigDecimal Balance() {
+        return view.isFilterActive() ? view.getAggregates().getTotal() : records.getTotalAmount();
+    }
+
+    private void ListAll() throws IOException {
+        List<Record> shown = Shown();
+        StringBuilder lines = new StringBuilder();
+        for (Record r : shown) {
+            Requests.AppendRecord(lines, r);
+        }
+        out.append(lines);
+        out.println("OK " + shown.size());
+    }
+
+    private void Import(String path) throws IOException {
+        CsvImporter.Result result = records.ImportCsv(path);
+        changed |= !result.getRecords().isEmpty();
+        for (String row : result.getRejectedRows()) {
+            out.println(row);
+        }
+        out.println("OK " + result.getRecords().size() + " " + result.getRejectedRows().size());
+    }
+
+    private void Report(String argument) throws IOException {
+        YearMonth[] months = Requests.ParseMonths(argument);
+        records.LoadBetween(months[0].atDay(1).minusDays(1), months[1].atEndOfMonth().plusDays(1));
+
+        StringBuilder lines = new StringBuilder();
+        Requests.AppendReport(lines, records.getRollup(), months[0], months[1]);
+        out.append(lines);
+        out.println("OK");
+    }
+
+    /**
+     * Rewrites the saved file if anything changed, folding its journal in as well
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        if (!changed)
+            return;
+
+        PersistenceWorker persistence = new PersistenceWorker(filename, PersistenceWorker.Durability.ON_EXIT, 0);
+        persistence.Compact(records);
+        persistence.close();
+    }
+}
@@ -1,45 +1,70 @@
 package cz.upol.jj.finance_keeper;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeParseException;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
-import java.util.function.Predicate;
 
 /**
  * A class handling user interface
  */
 public class Client {
     private ListOfRecords records = new ListOfRecords();
-    private ListOfRecords recordsToDisplay = new ListOfRecords();
+    private RecordView recordsToDisplay = new RecordView(records);
 
-    private Predicate<Record> filterPredicate = record -> true;
+    private RecordRenderer renderer = new RecordRenderer();
 
-    private boolean filterActive = false;
+    private final PersistenceWorker persistence;
 
     // Use newline as delimiter which allows spaces to be entered
     Scanner scanner = new Scanner(System.in).useDelimiter(System.lineSeparator());
 
     /**
-     * Initializes the Client object by reading data from a 'saved_data' file into a ListOfRecords
+     * Initializes the Client object by reading data from a 'saved_data' file into a ListOfRecords and opening its journal,
+     * changes get written after every change
+     *
+     * @throws IOException When the saved file cannot be read or the journal cannot be opened
      */
-    public Client() {
+    public Client() throws IOException {
+        this(PersistenceWorker.Durability.EVERY_CHANGE, 0);
+    }
+
+    /**
+     * Initializes the Client object by reading data from a 'saved_data' file into a ListOfRecords and opening its journal
+     *
+     * @param durability     When changes get written to the disk
+     * @param intervalMillis The interval between writes for 'Durability.INTERVAL' (in milliseconds)
+     * @throws IOException When the saved file cannot be read or the journal cannot be opened
+     */
+    public Client(PersistenceWorker.Durability durability, long intervalMillis) throws IOException {
         try {
             records.ReadFromFile("saved_data");
-        } catch (IOException exception) {
+        } catch (FileNotFoundException | NoSuchFileException exception) {
+            // A new saved file gets created on exit
         }
+        // A damaged file must not be replaced by an empty one on exit, and without the journal no change could be
+        // saved, so in both cases the client does not start at all
+        persistence = new PersistenceWorker("saved_data", durability, intervalMillis);
         records.OrderByDate(true);
-        this.recordsToDisplay.addAll(records);
+        renderer.setBalances(records::RunningBalances);
     }
 
     private void printMainMenu() {
         System.out.print(
                 "Akce: 0 - konec, 1 - přidat příjem, 2 - přidat výdaj, 3 - odstranit záznam, 4 - seřadit záznamy, 5 - filtrovat záznamy");
-        if(filterActive)
-            System.out.println(", 6 - odstranit filtr(y)");
-        else System.out.println();
+        if(recordsToDisplay.isFilterActive())
+            System.out.print(", 6 - odstranit filtr(y)");
+        if(renderer.PageCount(recordsToDisplay.size()) > 1)
+            System.out.print(", 7 - předchozí strana, 8 - další strana");
+        System.out.print(", 9 - import z CSV, 10 - měsíční přehled, 11 - statistiky, 12 - největší/nejmenší záznamy, 13 - zůstatek k datu, 14 - archiv");
+        System.out.println();
         System.out.print("Vaše volba: ");
     }
 
@@ -64,7 +89,7 @@ public class Client {
                     break;
                 default:
                     try {
-                        recordDate = LocalDate.parse(date, PrintFormats.dateFormat);
+                        recordDate = TextCodec.ParseDate(date.strip());
                         continueLoop = false;
                     } catch (java.time.format.DateTimeParseException exception) {
                         System.out.println("Špatně zadané datum, zadejte znovu.");
@@ -80,7 +105,7 @@ public class Client {
             System.out.print("Zadejte částku: ");
 
             try {
-                recordAmount = new BigDecimal(scanner.next());
+                recordAmount = TextCodec.ParseAmount(scanner.next().strip());
 
                 if (expense)
                     recordAmount = recordAmount.negate();
@@ -93,16 +118,17 @@ public class Client {
 
         Record toBeAdded = new Record(recordDate, recordReason, recordAmount);
 
-        records.add(toBeAdded);
-        recordsToDisplay.add(toBeAdded);
-
-        recordsToDisplay.Filter(filterPredicate);
-
+        // The partition of the record has to be read before the record can be added to it
         try {
-            records.WriteToFile("saved_data");
+            records.LoadPartitionsFor(List.of(toBeAdded));
         } catch (IOException exception) {
-            System.out.println("Chyba při zápisu do souboru.");
+            System.out.println("Chyba při čtení souboru.");
+            return;
         }
+        records.add(toBeAdded);
+
+        persistence.LogAdd(toBeAdded);
+        persistence.CompactIfNeeded(records);
     }
 
     private void RemoveRecord() {
@@ -110,7 +136,7 @@ public class Client {
 
         boolean continueLoop = true;
         while (continueLoop) {
-            recordsToDisplay.printWithIndices();
+            renderer.RenderPage(recordsToDisplay.getRecords(), true);
             System.out.print("Zadejte ID nebo -1 pro krok zpět: ");
 
             try {
@@ -127,14 +153,57 @@ public class Client {
 
         Record toBeRemoved = recordsToDisplay.get(id);
 
-        records.remove(toBeRemoved);
-        recordsToDisplay.remove(toBeRemoved);
+        records.RemoveById(toBeRemoved.getId());
+
+        persistence.LogRemove(toBeRemoved);
+        persistence.CompactIfNeeded(records);
+    }
+
+    private void ImportCsv() {
+        System.out.print("Zadejte cestu k souboru CSV (datum;důvod;částka) nebo prázdné pro krok zpět: ");
+        String filename = scanner.next();
+        if (filename.isBlank())
+            return;
+
+        CsvImporter.Result result;
+        try {
+            result = records.ImportCsv(filename);
+        } catch (IOException exception) {
+            System.out.println("Chyba při čtení souboru.");
+            return;
+        }
+        result.print();
+
+        persistence.Compact(records);
+    }
+
+    private void MonthlyReport() {
+        if (records.getFirstDate() == null)
+            return;
 
+        YearMonth from, to;
         try {
-            records.WriteToFile("saved_data");
+            System.out.print("od (M.RRRR, případně prázdné): ");
+            String monthFrom = scanner.next();
+            from = monthFrom.equals("") ? YearMonth.from(records.getFirstDate())
+                    : YearMonth.parse(monthFrom, PrintFormats.monthFormat);
+
+            System.out.print("do (M.RRRR, případně prázdné): ");
+            String monthTo = scanner.next();
+            to = monthTo.equals("") ? YearMonth.from(records.getLastDate())
+                    : YearMonth.parse(monthTo, PrintFormats.monthFormat);
+        } catch (DateTimeParseException exception) {
+            System.out.println("Špatně zadaný měsíc.");
+            return;
+        }
+
+        try {
+            records.LoadBetween(from.atDay(1).minusDays(1), to.atEndOfMonth().plusDays(1));
         } catch (IOException exception) {
-            System.out.println("Chyba při zápisu do souboru.");
+            System.out.println("Chyba při čtení souboru.");
+            return;
         }
+        records.getRollup().printReport(from, to);
     }
 
     private void OrderBy() {
@@ -149,22 +218,18 @@ public class Client {
                     return;
                 }
                 case "1" -> {
-                    recordsToDisplay.OrderByDate(true);
                     records.OrderByDate(true);
                     continueLoop = false;
                 }
                 case "2" -> {
-                    recordsToDisplay.OrderByDate(false);
                     records.OrderByDate(false);
                     continueLoop = false;
                 }
                 case "3" -> {
-                    recordsToDisplay.OrderByAmount(true);
                     records.OrderByAmount(true);
                     continueLoop = false;
                 }
                 case "4" -> {
-                    recordsToDisplay.OrderByAmount(false);
                     records.OrderByAmount(false);
                     continueLoop = false;
                 }
@@ -173,6 +238,137 @@ public class Client {
         }
     }
 
+    private void Top() {
+        boolean continueLoop = true;
+        boolean byAmount = false, desc = false;
+
+        while (continueLoop) {
+            System.out.print(
+                    "Zobrazit (-1 - zpět, 1 - nejvyšší částky, 2 - nejnižší částky, 3 - nejnovější, 4 - nejstarší): ");
+
+            switch (scanner.next()) {
+                case "-1" -> {
+                    return;
+                }
+                case "1" -> {
+                    byAmount = true;
+                    desc = true;
+                    continueLoop = false;
+                }
+                case "2" -> {
+                    byAmount = true;
+                    continueLoop = false;
+                }
+                case "3" -> {
+                    desc = true;
+                    continueLoop = false;
+                }
+                case "4" -> continueLoop = false;
+                default -> System.out.println(System.lineSeparator() + "Neexistující volba, zadejte znovu.");
+            }
+        }
+
+        int n = 0;
+
+        continueLoop = true;
+        while (continueLoop) {
+            System.out.print("Počet záznamů: ");
+
+            try {
+                n = Integer.parseInt(scanner.next());
+                continueLoop = n < 1;
+            } catch (NumberFormatException exception) {
+            }
+            if (continueLoop)
+                System.out.println("Špatně zadaný počet, zadejte znovu.");
+        }
+
+        // The best records may be in any year, so all of them have to be in memory
+        try {
+            records.LoadAll();
+        } catch (IOException exception) {
+            System.out.println("Chyba při čtení souboru.");
+            return;
+        }
+
+        List<Record> top = byAmount ? recordsToDisplay.TopByAmount(n, desc) : recordsToDisplay.TopByDate(n, desc);
+        new RecordRenderer().RenderAll(top, false);
+    }
+
+    private void Archive() {
+        boolean export = false;
+
+        boolean continueLoop = true;
+        while (continueLoop) {
+            System.out.print("Archiv (-1 - zpět, 1 - uložit zobrazené záznamy, 2 - načíst záznamy z archivu): ");
+
+            switch (scanner.next()) {
+                case "-1" -> {
+                    return;
+                }
+                case "1" -> {
+                    export = true;
+                    continueLoop = false;
+                }
+                case "2" -> continueLoop = false;
+                default -> System.out.println(System.lineSeparator() + "Neexistující volba, zadejte znovu.");
+            }
+        }
+
+        System.out.print("Zadejte cestu k archivu nebo prázdné pro krok zpět: ");
+        String filename = scanner.next();
+        if (filename.isBlank())
+            return;
+
+        try {
+            if (export) {
+                // A filtered view has read the partitions it needs, all of them are needed without a filter
+                if (!recordsToDisplay.isFilterActive())
+                    records.LoadAll();
+                List<Record> shown = recordsToDisplay.getRecords();
+                long bytes = RecordArchive.Export(Path.of(filename), shown);
+                System.out.printf("Archivováno %d záznamů (%d B).%n", shown.size(), bytes);
+            } else {
+                long count = records.ImportArchive(filename);
+                System.out.printf("Načteno %d záznamů.%n", count);
+                persistence.Compact(records);
+            }
+        } catch (IOException exception) {
+            System.out.println("Chyba při práci se souborem.");
+        }
+    }
+
+    private void BalanceAsOf() {
+        LocalDate date = null;
+
+        boolean continueLoop = true;
+        while (continueLoop) {
+            System.out.print("Datum (D.M.RRRR, případně prázdné pro dnešek): ");
+            String dateText = scanner.next();
+
+            try {
+                date = dateText.equals("") ? LocalDate.now() : TextCodec.ParseDate(dateText.strip());
+                continueLoop = false;
+            } catch (DateTimeParseException exception) {
+                System.out.println("Špatně zadané datum, zadejte znovu.");
+            }
+        }
+
+        BigDecimal balance;
+        try {
+            balance = records.getBalanceAsOf(date);
+        } catch (IOException exception) {
+            System.out.println("Chyba při čtení souboru.");
+            return;
+        }
+
+        String label = "Zůstatek k " + TextCodec.FormatDate(date) + ":";
+        if (balance.signum() > 0)
+            System.out.printf(PrintFormats.totalFormatPositive, label, balance);
+        else
+            System.out.printf(PrintFormats.totalFormatNegative, label, balance);
+    }
+
     private LocalDate[] GetFromToDatesFromUser() throws DateTimeParseException {
         LocalDate[] dates = new LocalDate[2];
 
@@ -182,7 +378,7 @@ public class Client {
         if (dateFrom.equals(""))
             dates[0] = LocalDate.MIN;
         else
-            dates[0] = LocalDate.parse(dateFrom, PrintFormats.dateFormat).minusDays(1);
+            dates[0] = TextCodec.ParseDate(dateFrom.strip()).minusDays(1);
 
 
         System.out.print("do (D.M.RRRR, případně prázdné): ");
@@ -191,87 +387,91 @@ public class Client {
         if (dateTo.equals(""))
             dates[1] = LocalDate.MAX;
         else
-            dates[1] = LocalDate.parse(dateTo, PrintFormats.dateFormat).plusDays(1);
+            dates[1] = TextCodec.ParseDate(dateTo.strip()).plusDays(1);
 
         return dates;
     }
 
+    // Bounds are inclusive, an empty one is null
     private BigDecimal[] GetFromToAmountsFromUser() throws NumberFormatException {
         BigDecimal[] amounts = new BigDecimal[2];
 
         System.out.print("od (případně prázdné): ");
         String amountFrom = scanner.next();
 
-        if (amountFrom.equals(""))
-            amounts[0] = new BigDecimal(-Double.MAX_VALUE);
-        else
-            amounts[0] = new BigDecimal(amountFrom).subtract(BigDecimal.ONE);
+        if (!amountFrom.isBlank())
+            amounts[0] = TextCodec.ParseAmount(amountFrom.strip());
 
-        System.out.print("od (případně prázdné): ");
+        System.out.print("do (případně prázdné): ");
         String amountTo = scanner.next();
 
-        if (amountTo.equals(""))
-            amounts[1] = new BigDecimal(Double.MAX_VALUE);
-        else
-            amounts[1] = new BigDecimal(amountTo).add(BigDecimal.ONE);
+        if (!amountTo.isBlank())
+            amounts[1] = TextCodec.ParseAmount(amountTo.strip());
 
         return amounts;
     }
 
-    private Predicate<Record> Filter() {
+    private void Filter() throws IOException {
         boolean continueLoop = true;
 
         while (continueLoop) {
             System.out.print(
-                    "Filtrovat podle (-1 - zpět, 1 - datum (od-do), 2 - částka(od-do), 3 - pouze příjmy, 4 - pouze výdaje): ");
+                    "Filtrovat podle (-1 - zpět, 1 - datum (od-do), 2 - částka(od-do), 3 - pouze příjmy, 4 - pouze výdaje, 5 - důvod obsahuje): ");
 
             switch (scanner.next()) {
                 case "-1" -> {
-                    return record -> true;
+                    return;
                 }
                 case "1" -> {
-                    LocalDate[] dates = new LocalDate[0];
+                    LocalDate[] dates;
                     try {
                         dates = GetFromToDatesFromUser();
-                        //continueLoop = false;
                     } catch (DateTimeParseException exception) {
                         System.out.println("Špatně zadané datum, zadejte znovu.");
+                        break;
                     }
 
-                    filterActive = true;
-                    return recordsToDisplay.FilterByDate(dates[0], dates[1]);
+                    recordsToDisplay.FilterByDate(dates[0], dates[1]);
+                    continueLoop = false;
                 }
                 case "2" -> {
-                    BigDecimal[] amounts = new BigDecimal[0];
+                    BigDecimal[] amounts;
                     try {
                         amounts = GetFromToAmountsFromUser();
-                        //continueLoop = false;
                     } catch (NumberFormatException exception) {
                         System.out.println("Špatně zadaná částka, zadejte znovu.");
+                        break;
                     }
 
-                    filterActive = true;
-                    return recordsToDisplay.FilterByAmount(amounts[0], amounts[1]);
+                    recordsToDisplay.FilterByAmountRange(amounts[0], amounts[1]);
+                    continueLoop = false;
                 }
                 case "3" -> {
-                    filterActive = true;
-                    return recordsToDisplay.FilterByAmount(BigDecimal.ZERO, new BigDecimal(Double.MAX_VALUE));
+                    recordsToDisplay.FilterBySign(1);
+                    continueLoop = false;
                 }
                 case "4" -> {
-                    filterActive = true;
-                    return recordsToDisplay.FilterByAmount(new BigDecimal(-Double.MAX_VALUE), BigDecimal.ZERO);
+                    recordsToDisplay.FilterBySign(-1);
+                    continueLoop = false;
+                }
+                case "5" -> {
+                    System.out.print("Hledaný text: ");
+                    String text = scanner.next();
+                    if (text.isBlank()) {
+                        System.out.println("Prázdný text, zadejte znovu.");
+                        break;
+                    }
+
+                    recordsToDisplay.FilterByReason(text.strip());
+                    continueLoop = false;
                 }
                 default -> System.out.println(System.lineSeparator() + "Neexistující volba, zadejte znovu.");
             }
         }
-        return record -> true;
     }
 
     private void RemoveFilters() {
-        filterPredicate = record -> true;
-        filterActive = false;
-        recordsToDisplay.clear();
-        recordsToDisplay.addAll(records);
+        recordsToDisplay.RemoveFilters();
     }
 
     /**
@@ -281,7 +481,10 @@ public class Client {
         boolean continueLoop = true;
 
         while (continueLoop) {
-            recordsToDisplay.print();
+            if (persistence.TakeFailure() != null)
+                System.out.println("Chyba při zápisu do souboru.");
+
+            renderer.RenderPage(recordsToDisplay.getRecords(), false);
             recordsToDisplay.printTotalAmount();
 
             printMainMenu();
@@ -290,7 +493,8 @@ public class Client {
                 case "0" -> {
                     continueLoop = false;
                     try {
-                        records.WriteToFile("saved_data");
+                        persistence.Compact(records);
+                        persistence.close();
                     } catch (IOException exception) {
                         System.out.println("Chyba při zápisu do souboru.");
                     }
@@ -298,9 +502,30 @@ public class Client {
                 case "1" -> AddRecord(false);
                 case "2" -> AddRecord(true);
                 case "3" -> RemoveRecord();
-                case "4" -> OrderBy();
-                case "5" -> filterPredicate = filterPredicate.and(Filter());
-                case "6" -> RemoveFilters();
+                case "4" -> {
+                    OrderBy();
+                    renderer.FirstPage();
+                }
+                case "5" -> {
+                    try {
+                        Filter();
+                    } catch (IOException exception) {
+                        System.out.println("Chyba při čtení souboru.");
+                    }
+                    renderer.FirstPage();
+                }
+                case "6" -> {
+                    RemoveFilters();
+                    renderer.FirstPage();
+                }
+                case "7" -> renderer.PreviousPage();
+                case "8" -> renderer.NextPage();
+                case "9" -> ImportCsv();
+                case "10" -> MonthlyReport();
+                case "11" -> Metrics.print();
+                case "12" -> Top();
+                case "13" -> BalanceAsOf();
+                case "14" -> Archive();
                 default -> System.out.println(System.lineSeparator() + "Neexistující volba, zadejte znovu.");
             }
 
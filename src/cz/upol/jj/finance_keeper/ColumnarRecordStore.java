@@ -0,0 +1,241 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Dates and amounts of the records of a ListOfRecords in primitive arrays, kept in ascending order of dates, so that
+ * filters by date and amount scan two arrays instead of testing every Record object.
+ * <p>
+ * Dates are stored as epoch days and amounts as whole numbers of units of 10^-scale, where the scale is the largest
+ * number of decimal places of any amount (at most 'maxScale'), so every amount is stored exactly. When an amount does
+ * not fit, the store gives up until the collection is cleared and 'Find' returns null, the filters then test the
+ * records themselves.
+ */
+class ColumnarRecordStore implements RecordIndex {
+    // More decimal places would take too much of the range of the amounts
+    private static final int maxScale = 9;
+    private static final BigDecimal minAmount = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal maxAmount = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    /**
+     * Bounds of amounts, null for no bound on that side
+     */
+    record AmountRange(BigDecimal low, boolean lowInclusive, BigDecimal high, boolean highInclusive) {
+        static final AmountRange all = new AmountRange(null, true, null, true);
+
+        /**
+         * @param bound     A lower bound
+         * @param inclusive Whether the bound itself is in the range
+         * @return The range narrowed by the bound
+         */
+        AmountRange Above(BigDecimal bound, boolean inclusive) {
+            if (low != null) {
+                int comparison = bound.compareTo(low);
+                if (comparison < 0 || comparison == 0 && (inclusive || !lowInclusive))
+                    return this;
+            }
+            return new AmountRange(bound, inclusive, high, highInclusive);
+        }
+
+        /**
+         * @param bound     An upper bound
+         * @param inclusive Whether the bound itself is in the range
+         * @return The range narrowed by the bound
+         */
+        AmountRange Below(BigDecimal bound, boolean inclusive) {
+            if (high != null) {
+                int comparison = bound.compareTo(high);
+                if (comparison > 0 || comparison == 0 && (inclusive || !highInclusive))
+                    return this;
+            }
+            return new AmountRange(low, lowInclusive, bound, inclusive);
+        }
+    }
+
+    private int[] epochDays = new int[16];
+    private long[] amounts = new long[16];
+    private Record[] records = new Record[16];
+    private int size = 0;
+    private int scale = 0;
+    private boolean available = true;
+
+    @Override
+    public void added(Record r) {
+        if (!available)
+            return;
+
+        try {
+            long amount = ToUnscaled(r.getAmount());
+            int position = UpperBound(Math.toIntExact(r.getDate().toEpochDay()));
+            EnsureCapacity(size + 1);
+            int moved = size - position;
+            System.arraycopy(epochDays, position, epochDays, position + 1, moved);
+            System.arraycopy(amounts, position, amounts, position + 1, moved);
+            System.arraycopy(records, position, records, position + 1, moved);
+            Set(position, r, amount);
+            size++;
+        } catch (ArithmeticException exception) {
+            GiveUp();
+        }
+    }
+
+    @Override
+    public void addedAll(Collection<? extends Record> added) {
+        // Inserting one by one shifts the arrays each time, sorting once is cheaper for bigger batches
+        if (added.size() < 16) {
+            RecordIndex.super.addedAll(added);
+            return;
+        }
+        if (!available)
+            return;
+
+        List<Record> all = new ArrayList<>(size + added.size());
+        all.addAll(Arrays.asList(records).subList(0, size));
+        all.addAll(added);
+        all.sort(Comparator.comparing(Record::getDate));
+
+        cleared();
+        EnsureCapacity(all.size());
+        try {
+            for (Record r : all) {
+                Set(size++, r, ToUnscaled(r.getAmount()));
+            }
+        } catch (ArithmeticException exception) {
+            GiveUp();
+        }
+    }
+
+    @Override
+    public void removed(Record r) {
+        if (!available)
+            return;
+
+        int day = Math.toIntExact(r.getDate().toEpochDay());
+        for (int i = LowerBound(day); i < size && epochDays[i] == day; i++) {
+            if (records[i] == r) {
+                int moved = size - i - 1;
+                System.arraycopy(epochDays, i + 1, epochDays, i, moved);
+                System.arraycopy(amounts, i + 1, amounts, i, moved);
+                System.arraycopy(records, i + 1, records, i, moved);
+                records[--size] = null;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void cleared() {
+        Arrays.fill(records, 0, size, null);
+        size = 0;
+        scale = 0;
+        available = true;
+    }
+
+    /**
+     * Finds the records between two dates with amounts in a range, comparing only the columns
+     *
+     * @param from  A from date (exclusive)
+     * @param to    A to date (exclusive)
+     * @param range The bounds of the amounts
+     * @param timer Gets stopped with the number of compared rows, unless null is returned
+     * @return The matching records in ascending order of their dates, null when the store cannot hold the amounts
+     */
+    List<Record> Find(LocalDate from, LocalDate to, AmountRange range, Metrics.Timer timer) {
+        if (!available)
+            return null;
+
+        int start = UpperBound(ClampedDay(from));
+        int end = Math.max(start, LowerBound(ClampedDay(to)));
+        long low = range.low() == null ? Long.MIN_VALUE : Bound(range.low(), true, range.lowInclusive());
+        long high = range.high() == null ? Long.MAX_VALUE : Bound(range.high(), false, range.highInclusive());
+
+        List<Record> found = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            if (amounts[i] >= low && amounts[i] <= high)
+                found.add(records[i]);
+        }
+        timer.Stop(end - start, 0);
+        return found;
+    }
+
+    // Dates the columns cannot hold lie before or after all of the stored ones
+    private static int ClampedDay(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, date.toEpochDay()));
+    }
+
+    // The amount in units of 10^-scale, the stored amounts get more decimal places if the amount has more
+    private long ToUnscaled(BigDecimal amount) {
+        if (amount.scale() > scale) {
+            if (amount.scale() > maxScale)
+                throw new ArithmeticException("Too many decimal places: " + amount);
+            long factor = 1;
+            for (int i = scale; i < amount.scale(); i++) {
+                factor *= 10;
+            }
+            for (int i = 0; i < size; i++) {
+                amounts[i] = Math.multiplyExact(amounts[i], factor);
+            }
+            scale = amount.scale();
+        }
+        return amount.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    // The nearest whole number of units inside the range, clamped to the range of the stored amounts
+    private long Bound(BigDecimal bound, boolean lower, boolean inclusive) {
+        BigDecimal scaled = bound.movePointRight(scale);
+        BigDecimal whole = scaled.setScale(0, lower ? RoundingMode.CEILING : RoundingMode.FLOOR);
+        if (!inclusive && whole.compareTo(scaled) == 0)
+            whole = lower ? whole.add(BigDecimal.ONE) : whole.subtract(BigDecimal.ONE);
+        return whole.max(minAmount).min(maxAmount).longValueExact();
+    }
+
+    private void GiveUp() {
+        cleared();
+        available = false;
+    }
+
+    private void Set(int position, Record r, long amount) {
+        epochDays[position] = Math.toIntExact(r.getDate().toEpochDay());
+        amounts[position] = amount;
+        records[position] = r;
+    }
+
+    // The first position with a day not before the given one
+    private int LowerBound(int day) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochDays[middle] < day)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    // The first position with a day after the given one
+    private int UpperBound(int day) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochDays[middle] > day)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+
+    private void EnsureCapacity(int capacity) {
+        if (capacity <= epochDays.length)
+            return;
+
+        int newCapacity = Math.max(capacity, epochDays.length * 2);
+        epochDays = Arrays.copyOf(epochDays, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        records = Arrays.copyOf(records, newCapacity);
+    }
+}
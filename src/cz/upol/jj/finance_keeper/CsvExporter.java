@@ -0,0 +1,51 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Exports records to CSV files the CsvImporter reads back: a header and the columns date (D.M.RRRR), reason and amount
+ * separated by ';', reasons containing ';' or quotes are quoted
+ */
+public class CsvExporter {
+    /**
+     * Writes records to a CSV file, replacing it if it exists
+     *
+     * @param path    The file to write
+     * @param records The records to export, in the order they should be written in
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    public static long Export(Path path, List<Record> records) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.EXPORT);
+        StringBuilder line = new StringBuilder();
+
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("datum;důvod;částka");
+            out.newLine();
+
+            for (Record r : records) {
+                line.setLength(0);
+                TextCodec.AppendDate(line, r.getDate()).append(';');
+                AppendQuoted(line, r.getReason());
+                line.append(';').append(r.getAmount().toPlainString()).append(System.lineSeparator());
+                out.append(line);
+            }
+        }
+        long bytes = Files.size(path);
+        timer.Stop(records.size(), bytes);
+        return bytes;
+    }
+
+    private static void AppendQuoted(StringBuilder line, String value) {
+        if (value.indexOf(';') < 0 && value.indexOf('"') < 0 && value.indexOf(',') < 0) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
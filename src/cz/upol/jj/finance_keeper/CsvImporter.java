@@ -0,0 +1,228 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Imports records from CSV files (bank statements) with the columns date, reason and amount.
+ * <p>
+ * The file is read as a stream of chunks of lines which get parsed in parallel, so only a few chunks are held in
+ * memory at once. Columns are separated by ';' or ',' (whichever the first line contains), values may be quoted.
+ * Dates are accepted as D.M.RRRR or RRRR-MM-DD. Amounts may use a decimal point or a decimal comma with either
+ * delimiter (with ',' an amount with a decimal comma has to be quoted, e.g. "1 250,50"), digit groups may only be
+ * separated by spaces. A first line is taken for a header only if none of its values is a date or an amount,
+ * otherwise it is imported (or rejected) like any other row.
+ */
+public class CsvImporter {
+    private static final int chunkSize = 4096;
+
+    /**
+     * The outcome of an import
+     */
+    public static class Result {
+        private final List<Record> records = new ArrayList<>();
+        private final List<String> rejectedRows = new ArrayList<>();
+        private long elapsedNanos;
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        /**
+         * @return Rows that could not be parsed, each with its line number
+         */
+        public List<String> getRejectedRows() {
+            return rejectedRows;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Prints the number of imported and rejected rows and the throughput
+         */
+        public void print() {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("Importováno %d záznamů za %.3f s (%.0f záznamů/s), odmítnuto %d řádků.%n",
+                    records.size(), seconds, seconds > 0 ? records.size() / seconds : 0.0, rejectedRows.size());
+            for (String row : rejectedRows) {
+                System.out.println("  " + row);
+            }
+        }
+    }
+
+    private record Chunk(int firstLineNumber, List<String> lines) {
+    }
+
+    private record ParsedChunk(List<Record> records, List<String> rejectedRows) {
+    }
+
+    /**
+     * Parses all rows of a given CSV file
+     *
+     * @param path The file to import
+     * @return The parsed records and the rejected rows
+     * @throws IOException
+     */
+    public static Result Import(Path path) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.IMPORT);
+        long start = System.nanoTime();
+        Result result = new Result();
+
+        ExecutorService executor = ForkJoinPool.commonPool();
+        int maxChunksInFlight = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+        Queue<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null)
+                return result;
+
+            char delimiter = line.indexOf(';') >= 0 ? ';' : ',';
+            int lineNumber = 1;
+            if (IsHeader(line, delimiter)) {
+                line = reader.readLine();
+                lineNumber++;
+            }
+
+            List<String> lines = new ArrayList<>(chunkSize);
+            int chunkStart = lineNumber;
+            for (; line != null; line = reader.readLine(), lineNumber++) {
+                lines.add(line);
+                if (lines.size() == chunkSize) {
+                    Chunk chunk = new Chunk(chunkStart, lines);
+                    inFlight.add(executor.submit(() -> ParseChunk(chunk, delimiter)));
+                    if (inFlight.size() >= maxChunksInFlight)
+                        Collect(inFlight.remove(), result);
+
+                    lines = new ArrayList<>(chunkSize);
+                    chunkStart = lineNumber + 1;
+                }
+            }
+            inFlight.add(CompletableFuture.completedFuture(ParseChunk(new Chunk(chunkStart, lines), delimiter)));
+
+            while (!inFlight.isEmpty()) {
+                Collect(inFlight.remove(), result);
+            }
+        } finally {
+            for (Future<ParsedChunk> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+
+        result.elapsedNanos = System.nanoTime() - start;
+        timer.Stop(result.records.size(), Files.size(path));
+        return result;
+    }
+
+    private static void Collect(Future<ParsedChunk> future, Result result) throws IOException {
+        try {
+            ParsedChunk parsed = future.get();
+            result.records.addAll(parsed.records());
+            result.rejectedRows.addAll(parsed.rejectedRows());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", exception);
+        } catch (ExecutionException exception) {
+            throw new IOException(exception.getCause());
+        }
+    }
+
+    private static ParsedChunk ParseChunk(Chunk chunk, char delimiter) {
+        List<Record> records = new ArrayList<>(chunk.lines().size());
+        List<String> rejectedRows = new ArrayList<>();
+
+        for (int i = 0; i < chunk.lines().size(); i++) {
+            String line = chunk.lines().get(i);
+            if (line.isBlank())
+                continue;
+
+            try {
+                records.add(ParseLine(line, delimiter));
+            } catch (IllegalArgumentException | DateTimeParseException exception) {
+                rejectedRows.add("řádek " + (chunk.firstLineNumber() + i) + ": " + line);
+            }
+        }
+        return new ParsedChunk(records, rejectedRows);
+    }
+
+    private static Record ParseLine(String line, char delimiter) {
+        List<String> columns = SplitLine(line, delimiter);
+        if (columns.size() < 3)
+            throw new IllegalArgumentException("Missing columns");
+
+        return new Record(ParseDate(columns.get(0)), columns.get(1).strip(), ParseAmount(columns.get(2)));
+    }
+
+    // A data row with a bad date still has a date or an amount somewhere, only a row of names has neither
+    private static boolean IsHeader(String line, char delimiter) {
+        for (String column : SplitLine(line, delimiter)) {
+            try {
+                ParseDate(column);
+                return false;
+            } catch (DateTimeParseException exception) {
+                // Not a date, may still be an amount
+            }
+            try {
+                ParseAmount(column);
+                return false;
+            } catch (IllegalArgumentException exception) {
+                // Neither a date nor an amount
+            }
+        }
+        return true;
+    }
+
+    private static LocalDate ParseDate(String text) {
+        String date = text.strip();
+        if (date.indexOf('-') > 0)
+            return TextCodec.ParseIsoDate(date);
+        return TextCodec.ParseDate(date);
+    }
+
+    private static BigDecimal ParseAmount(String text) {
+        return TextCodec.ParseAmount(text, ',', true);
+    }
+
+    // Splits a line by the delimiter, values in double quotes may contain the delimiter and doubled quotes
+    private static List<String> SplitLine(String line, char delimiter) {
+        List<String> columns = new ArrayList<>(3);
+        StringBuilder column = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    column.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    column.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                columns.add(column.toString());
+                column.setLength(0);
+            } else {
+                column.append(c);
+            }
+        }
+        columns.add(column.toString());
+        return columns;
+    }
+}
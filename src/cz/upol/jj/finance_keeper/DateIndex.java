@@ -0,0 +1,56 @@
+package cz.upol.jj.finance_keeper;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Records of a ListOfRecords kept in ascending order of their dates, so that date ranges can be found by binary search
+ */
+class DateIndex extends SortedRecordIndex {
+    DateIndex() {
+        super(Comparator.comparing(Record::getDate));
+    }
+
+    /**
+     * Finds the records between two dates
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return A read-only view of the matching records in ascending order of their dates, valid until the collection
+     * changes
+     */
+    public List<Record> Between(LocalDate from, LocalDate to) {
+        int start = FirstAfter(from);
+        int end = Math.max(start, FirstNotBefore(to));
+
+        return Collections.unmodifiableList(sorted.subList(start, end));
+    }
+
+    // The first position with a date not before the given one
+    private int FirstNotBefore(LocalDate date) {
+        int low = 0, high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted.get(middle).getDate().isBefore(date))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    // The first position with a date after the given one
+    private int FirstAfter(LocalDate date) {
+        int low = 0, high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted.get(middle).getDate().isAfter(date))
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,239 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Sorts more records than should be kept in memory at once.
+ * <p>
+ * Records are collected into runs of at most 'runLength' records, every full run is sorted and spilled to a temporary
+ * file. Finishing merges the runs, at most 'maxFanIn' of them at a time, so the memory used depends on the run length
+ * only. Records that compare as equal keep the order they were given in. Run files hold rows of the record id, epoch
+ * day, unscaled amount, amount scale and reason id; the reason ids belong to the shared ReasonDictionary, so the files
+ * are only readable by the running program.
+ */
+class ExternalSort implements Consumer<Record>, Closeable {
+    static final int defaultRunLength = 100_000;
+    private static final int maxFanIn = 64;
+    private static final int bufferSize = 64 * 1024;
+
+    private record Run(Path path, long count) {
+    }
+
+    private final Comparator<Record> comparator;
+    private final int runLength;
+    private final List<Record> buffer = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private long spilledBytes = 0;
+
+    /**
+     * Initializes a sort
+     *
+     * @param comparator The order to sort in
+     * @param runLength  Number of records kept in memory before they are spilled
+     */
+    ExternalSort(Comparator<Record> comparator, int runLength) {
+        if (runLength < 1)
+            throw new IllegalArgumentException("Run length has to be positive");
+        this.comparator = comparator;
+        this.runLength = runLength;
+    }
+
+    /**
+     * Adds a record to be sorted
+     *
+     * @param r The record
+     * @throws UncheckedIOException When spilling a full run fails
+     */
+    @Override
+    public void accept(Record r) {
+        buffer.add(r);
+        if (buffer.size() == runLength) {
+            try {
+                Spill();
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+    }
+
+    /**
+     * @return Number of bytes written to temporary files so far
+     */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Passes all added records in sorted order to an action
+     *
+     * @param action Called with every record
+     * @throws IOException
+     */
+    void Finish(Consumer<Record> action) throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            buffer.forEach(action);
+            buffer.clear();
+            return;
+        }
+
+        if (!buffer.isEmpty())
+            Spill();
+
+        List<Run> remaining = new ArrayList<>(runs);
+        while (remaining.size() > maxFanIn) {
+            // Neighbouring runs are merged together, so equal records stay in the order they were added in
+            List<Run> merged = new ArrayList<>();
+            for (int i = 0; i < remaining.size(); i += maxFanIn) {
+                List<Run> group = remaining.subList(i, Math.min(remaining.size(), i + maxFanIn));
+                merged.add(group.size() == 1 ? group.get(0) : MergeToRun(group));
+            }
+            remaining = merged;
+        }
+        Merge(remaining, action);
+    }
+
+    /**
+     * Deletes all temporary files
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        for (Run run : runs) {
+            Files.deleteIfExists(run.path());
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void Spill() throws IOException {
+        buffer.sort(comparator);
+        Run run = NewRun(buffer.size());
+        try (DataOutputStream out = OpenForWriting(run.path())) {
+            for (Record r : buffer) {
+                WriteRow(out, r);
+            }
+            spilledBytes += out.size();
+        }
+        buffer.clear();
+    }
+
+    private Run MergeToRun(List<Run> group) throws IOException {
+        long count = 0;
+        for (Run run : group) {
+            count += run.count();
+        }
+
+        Run merged = NewRun(count);
+        try (DataOutputStream out = OpenForWriting(merged.path())) {
+            Merge(group, r -> {
+                try {
+                    WriteRow(out, r);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            });
+            spilledBytes += out.size();
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+
+        for (Run run : group) {
+            Files.delete(run.path());
+            runs.remove(run);
+        }
+        return merged;
+    }
+
+    private Run NewRun(long count) throws IOException {
+        Run run = new Run(Files.createTempFile("finance_keeper_run", ".tmp"), count);
+        runs.add(run);
+        return run;
+    }
+
+    /**
+     * The next record of a run being merged
+     */
+    private static final class RunReader implements Closeable {
+        private final DataInputStream in;
+        private final int index;
+        private long remaining;
+        private Record head;
+
+        RunReader(Run run, int index) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.path().toFile()), bufferSize));
+            this.index = index;
+            remaining = run.count();
+        }
+
+        // Returns false at the end of the run
+        boolean Next() throws IOException {
+            if (remaining == 0)
+                return false;
+            remaining--;
+            head = ReadRow(in);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private void Merge(List<Run> group, Consumer<Record> action) throws IOException {
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(
+                Comparator.comparing((RunReader reader) -> reader.head, comparator)
+                        .thenComparingInt(reader -> reader.index));
+        List<RunReader> readers = new ArrayList<>();
+        try {
+            for (Run run : group) {
+                RunReader reader = new RunReader(run, readers.size());
+                readers.add(reader);
+                if (reader.Next())
+                    heads.add(reader);
+            }
+
+            while (!heads.isEmpty()) {
+                RunReader reader = heads.poll();
+                action.accept(reader.head);
+                if (reader.Next())
+                    heads.add(reader);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static DataOutputStream OpenForWriting(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile()), bufferSize));
+    }
+
+    private static void WriteRow(DataOutputStream out, Record r) throws IOException {
+        BigDecimal amount = r.getAmount();
+        if (amount.scale() != (byte) amount.scale() || amount.unscaledValue().bitLength() > 63)
+            throw new IOException("Amount too large to be sorted: " + amount);
+
+        out.writeLong(r.getId());
+        out.writeInt((int) r.getDate().toEpochDay());
+        out.writeLong(amount.unscaledValue().longValue());
+        out.writeByte(amount.scale());
+        out.writeInt(r.getReasonId());
+    }
+
+    private static Record ReadRow(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        LocalDate date = LocalDate.ofEpochDay(in.readInt());
+        BigDecimal amount = BigDecimal.valueOf(in.readLong(), in.readByte());
+        return new Record(id, date, in.readInt(), amount);
+    }
+}
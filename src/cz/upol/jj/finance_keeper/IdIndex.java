@@ -0,0 +1,33 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.HashMap;
+
+/**
+ * Records of a ListOfRecords by their ids
+ */
+class IdIndex implements RecordIndex {
+    private final HashMap<Long, Record> byId = new HashMap<>();
+
+    @Override
+    public void added(Record r) {
+        byId.put(r.getId(), r);
+    }
+
+    @Override
+    public void removed(Record r) {
+        byId.remove(r.getId());
+    }
+
+    @Override
+    public void cleared() {
+        byId.clear();
+    }
+
+    /**
+     * @param id The id of a record
+     * @return The record, null if there is no record with the id
+     */
+    public Record Get(long id) {
+        return byId.get(id);
+    }
+}
@@ -0,0 +1,333 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * An append-only log of records added to/removed from a saved file since its last full write.
+ * <p>
+ * Compaction rewrites the base file from memory and empties the log. It uses these files next to the base file:
+ * <ul>
+ *     <li>'.journal' - the active log</li>
+ *     <li>'.journal.old' - the log rotated away by a compaction that is still running</li>
+ *     <li>'.tmp' - a marker of a compaction writing the partitions and the manifest; while it exists the old log has
+ *     not been folded in yet</li>
+ * </ul>
+ * Appended changes are only buffered until 'Sync' is called. A journal is not thread-safe, the PersistenceWorker
+ * accesses it from its own thread only.
+ */
+public class Journal implements Closeable {
+    // Logs written before records had ids identify removed records by their values
+    private static final byte addOperationWithoutId = 1;
+    private static final byte removeOperationWithoutId = 2;
+    private static final byte addOperation = 3;
+    // Removals logged before partitions were read lazily do not say which partition the record belongs to
+    private static final byte removeOperationWithoutDate = 4;
+    private static final byte removeOperation = 5;
+
+    /**
+     * Size of the log (in bytes) after which the base file should get rewritten
+     */
+    public static final long compactionThreshold = 64 * 1024;
+
+    private final Path file;
+    private final Path journal;
+    private final Path oldJournal;
+    private final Path tmp;
+
+    private FileOutputStream journalStream;
+    private DataOutputStream out;
+    private volatile long journalSize;
+    private long syncedSize;
+
+    /**
+     * Opens the log belonging to a given file, cleaning up after an interrupted compaction
+     *
+     * @param filename The name of the base file
+     * @throws IOException
+     */
+    public Journal(String filename) throws IOException {
+        file = Path.of(filename);
+        journal = Path.of(filename + ".journal");
+        oldJournal = Path.of(filename + ".journal.old");
+        tmp = Path.of(filename + ".tmp");
+
+        // A new base file with the old log folded in has already replaced the previous one
+        if (Files.exists(oldJournal) && !Files.exists(tmp))
+            Files.delete(oldJournal);
+        // The compaction did not get to rotating the log, the base file is still the previous one
+        if (Files.exists(tmp) && !Files.exists(oldJournal))
+            Files.delete(tmp);
+
+        OpenJournal();
+    }
+
+    private void OpenJournal() throws IOException {
+        journalSize = Files.exists(journal) ? Files.size(journal) : 0;
+        syncedSize = journalSize;
+        journalStream = new FileOutputStream(journal.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(journalStream));
+    }
+
+    private void Append(byte operation, Record r) throws IOException {
+        int before = out.size();
+        out.writeByte(operation);
+        out.writeLong(r.getId());
+        if (operation == addOperation)
+            ListOfRecords.WriteRecord(out, r);
+        else
+            out.writeInt((int) r.getDate().toEpochDay());
+        journalSize += out.size() - before;
+    }
+
+    /**
+     * @return Size of the log in bytes, including changes not synced yet
+     */
+    public long getSize() {
+        return journalSize;
+    }
+
+    /**
+     * Logs a record that was added
+     *
+     * @param r The added record
+     * @throws IOException
+     */
+    public void LogAdd(Record r) throws IOException {
+        Append(addOperation, r);
+    }
+
+    /**
+     * Logs a record that was removed
+     *
+     * @param r The removed record
+     * @throws IOException
+     */
+    public void LogRemove(Record r) throws IOException {
+        Append(removeOperation, r);
+    }
+
+    /**
+     * Writes all buffered changes to the log and forces them to the disk
+     *
+     * @throws IOException
+     */
+    public void Sync() throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.JOURNAL_SYNC);
+        out.flush();
+        journalStream.getFD().sync();
+        timer.Stop(0, journalSize - syncedSize);
+        syncedSize = journalSize;
+    }
+
+    /**
+     * Rewrites the read partitions and the manifest of the base file and empties the log
+     *
+     * @param snapshot The contents the saved file should have
+     * @throws IOException
+     */
+    public void Compact(PartitionedFile.Snapshot snapshot) throws IOException {
+        Sync();
+        RotateJournal();
+
+        PartitionedFile.Write(file, snapshot);
+        Files.delete(tmp);
+        Files.delete(oldJournal);
+    }
+
+    private void RotateJournal() throws IOException {
+        if (!Files.exists(tmp))
+            Files.createFile(tmp);
+
+        out.close();
+        if (Files.exists(oldJournal)) {
+            // A previous compaction failed, its log has to stay until a new base file is in place
+            Files.write(oldJournal, Files.readAllBytes(journal), StandardOpenOption.APPEND);
+            Files.delete(journal);
+        } else if (Files.exists(journal)) {
+            Files.move(journal, oldJournal);
+        } else {
+            Files.createFile(oldJournal);
+        }
+        OpenJournal();
+    }
+
+    /**
+     * Syncs buffered changes and closes the log
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            Sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Applies all logged changes of a given file to a collection
+     *
+     * @param filename The name of the base file
+     * @param records  The collection read from the base file
+     * @throws IOException
+     */
+    static void Replay(String filename, ListOfRecords records) throws IOException {
+        // The old log only needs replaying if its compaction did not finish
+        if (Files.exists(Path.of(filename + ".tmp")))
+            ReplayFile(Path.of(filename + ".journal.old"), records);
+        ReplayFile(Path.of(filename + ".journal"), records);
+    }
+
+    /**
+     * Changes logged in a journal, kept apart from the records of the base file so that the file can be read without
+     * holding its records
+     */
+    static class Pending {
+        // Records added and not removed since, by id
+        private final Map<Long, Record> added = new LinkedHashMap<>();
+        private final Set<Long> removed = new HashSet<>();
+        // Records removed by logs without ids, each of them drops one record with the same values
+        private final List<Record> removedMatching = new ArrayList<>();
+
+        private void Add(Record r) {
+            added.put(r.getId(), r);
+        }
+
+        // The base file may hold the record as well, if an interrupted compaction already wrote it
+        private void Remove(long id) {
+            added.remove(id);
+            removed.add(id);
+        }
+
+        private void RemoveMatching(Record r) {
+            if (!added.values().removeIf(candidate -> SameValues(candidate, r)))
+                removedMatching.add(r);
+        }
+
+        /**
+         * Decides whether a record of the base file is still there. Has to be called once for every record of the
+         * base file, a removal without an id drops just one record.
+         *
+         * @param r A record of the base file
+         * @return False when the record got removed or replaced by a logged one
+         */
+        boolean Keeps(Record r) {
+            if (removed.contains(r.getId()))
+                return false;
+            // An interrupted compaction may have written the record already, the logged copy is the same
+            added.remove(r.getId());
+            if (!removedMatching.isEmpty()) {
+                for (Iterator<Record> iterator = removedMatching.iterator(); iterator.hasNext(); ) {
+                    if (SameValues(iterator.next(), r)) {
+                        iterator.remove();
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return Records added by the log and not found in the base file, valid once all records of the base file
+         * went through 'Keeps'
+         */
+        Collection<Record> getAdded() {
+            return added.values();
+        }
+
+        private static boolean SameValues(Record a, Record b) {
+            return a.getDate().equals(b.getDate()) && a.getReasonId() == b.getReasonId()
+                    && a.getAmount().equals(b.getAmount());
+        }
+    }
+
+    /**
+     * Reads the changes logged for a given file without applying them
+     *
+     * @param filename The name of the base file
+     * @return The changes
+     * @throws IOException
+     */
+    static Pending ReadPending(String filename) throws IOException {
+        Pending pending = new Pending();
+        if (Files.exists(Path.of(filename + ".tmp")))
+            ReadPendingFile(Path.of(filename + ".journal.old"), pending);
+        ReadPendingFile(Path.of(filename + ".journal"), pending);
+        return pending;
+    }
+
+    private static void ReadPendingFile(Path path, Pending pending) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            while (true) {
+                switch (in.readByte()) {
+                    case addOperation -> pending.Add(ListOfRecords.LoadRecord(in.readLong(), in));
+                    case removeOperation -> {
+                        pending.Remove(in.readLong());
+                        in.readInt();
+                    }
+                    case removeOperationWithoutDate -> pending.Remove(in.readLong());
+                    case addOperationWithoutId -> pending.Add(ListOfRecords.LoadRecord(in));
+                    case removeOperationWithoutId -> pending.RemoveMatching(ListOfRecords.LoadRecord(in));
+                    default -> throw new IOException("Corrupted journal: " + path);
+                }
+            }
+        } catch (EOFException eofException) {
+            // Either the end of the log or a change cut short by a crash
+        }
+    }
+
+    private static void ReplayFile(Path path, ListOfRecords records) throws IOException {
+        if (!Files.exists(path))
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            while (true) {
+                switch (in.readByte()) {
+                    case addOperation -> ReplayAdd(records, ListOfRecords.LoadRecord(in.readLong(), in));
+                    case removeOperation -> ReplayRemove(records, in.readLong(), LocalDate.ofEpochDay(in.readInt()));
+                    case removeOperationWithoutDate -> ReplayRemove(records, in.readLong(), null);
+                    case addOperationWithoutId -> records.add(ListOfRecords.LoadRecord(in));
+                    case removeOperationWithoutId -> RemoveMatching(records, ListOfRecords.LoadRecord(in));
+                    default -> throw new IOException("Corrupted journal: " + path);
+                }
+            }
+        } catch (EOFException eofException) {
+            // Either the end of the log or a change cut short by a crash
+        }
+    }
+
+    // The old log of an interrupted compaction may contain records already written to the partitions
+    private static void ReplayAdd(ListOfRecords records, Record r) {
+        if (records.FindById(r.getId()) == null)
+            records.add(r);
+    }
+
+    private static void ReplayRemove(ListOfRecords records, long id, LocalDate date) throws IOException {
+        if (date == null)
+            records.LoadAll();
+        else
+            records.LoadBetween(date.minusDays(1), date.plusDays(1));
+        records.RemoveById(id);
+    }
+
+    private static void RemoveMatching(ListOfRecords records, Record r) throws IOException {
+        records.LoadBetween(r.getDate().minusDays(1), r.getDate().plusDays(1));
+        for (int i = 0; i < records.size(); i++) {
+            Record candidate = records.get(i);
+            if (candidate.getDate().equals(r.getDate()) && candidate.getReasonId() == r.getReasonId()
+                    && candidate.getAmount().equals(r.getAmount())) {
+                records.remove(i);
+                return;
+            }
+        }
+    }
+}
@@ -2,84 +2,687 @@ package cz.upol.jj.finance_keeper;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 /**
  * A collection of records that get displayed to the user
  */
 public class ListOfRecords extends ArrayList<Record> {
+    private final transient IdIndex idIndex = new IdIndex();
+    private final transient DateIndex dateIndex = new DateIndex();
+    private final transient SortedRecordIndex amountIndex = new SortedRecordIndex(Comparator.comparing(Record::getAmount));
+    private final transient Aggregates aggregates = new Aggregates();
+    private final transient MonthlyRollup rollup = new MonthlyRollup();
+    private final transient ReasonIndex reasonIndex = new ReasonIndex();
+    private final transient BalanceIndex balanceIndex = new BalanceIndex();
+    private final transient ColumnarRecordStore columns = new ColumnarRecordStore();
+    private final transient List<RecordIndex> indexes = new ArrayList<>(List.of(idIndex, dateIndex, amountIndex, aggregates, rollup, reasonIndex, balanceIndex, columns));
+
+    // The comparator the collection is currently ordered by, null if its order is not known
+    private transient Comparator<Record> ordering = null;
+
+    // Partitions of the file the collection was read from, null if all of its records are in memory
+    private transient PartitionedFile partitions = null;
+
+    @Override
+    public boolean add(Record r) {
+        LoadPartitionOf(r);
+        super.add(r);
+        ordering = null;
+        for (RecordIndex index : indexes) {
+            index.added(r);
+        }
+        return true;
+    }
+
+    @Override
+    public void add(int position, Record r) {
+        LoadPartitionOf(r);
+        super.add(position, r);
+        ordering = null;
+        for (RecordIndex index : indexes) {
+            index.added(r);
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Record> records) {
+        List<Record> added = new ArrayList<>(records);
+        LoadPartitionsOf(added);
+        super.addAll(added);
+        ordering = null;
+        for (RecordIndex index : indexes) {
+            index.addedAll(added);
+        }
+        return !added.isEmpty();
+    }
+
+    @Override
+    public boolean addAll(int position, Collection<? extends Record> records) {
+        List<Record> added = new ArrayList<>(records);
+        LoadPartitionsOf(added);
+        super.addAll(position, added);
+        ordering = null;
+        for (RecordIndex index : indexes) {
+            index.addedAll(added);
+        }
+        return !added.isEmpty();
+    }
+
+    @Override
+    public Record set(int position, Record r) {
+        LoadPartitionOf(r);
+        Record replaced = super.set(position, r);
+        // ArrayList does not count a replacement as a modification, views caching the contents have to see it
+        modCount++;
+        ordering = null;
+        for (RecordIndex index : indexes) {
+            index.removed(replaced);
+            index.added(r);
+        }
+        return replaced;
+    }
+
+    @Override
+    public Record remove(int position) {
+        Record removed = super.remove(position);
+        for (RecordIndex index : indexes) {
+            index.removed(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int position = indexOf(o);
+        if (position < 0)
+            return false;
+
+        remove(position);
+        return true;
+    }
+
+    @Override
+    protected void removeRange(int fromPosition, int toPosition) {
+        List<Record> removed = new ArrayList<>(subList(fromPosition, toPosition));
+        super.removeRange(fromPosition, toPosition);
+        for (RecordIndex index : indexes) {
+            for (Record r : removed) {
+                index.removed(r);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        for (RecordIndex index : indexes) {
+            index.cleared();
+        }
+    }
+
+    // Bulk changes below rebuild the indexes, they are not used on any hot path
+
+    @Override
+    public boolean removeIf(Predicate<? super Record> filter) {
+        boolean changed = super.removeIf(filter);
+        if (changed)
+            Reindex();
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean changed = super.removeAll(c);
+        if (changed)
+            Reindex();
+        return changed;
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean changed = super.retainAll(c);
+        if (changed)
+            Reindex();
+        return changed;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Record> operator) {
+        super.replaceAll(operator);
+        ordering = null;
+        Reindex();
+    }
+
+    private void Reindex() {
+        for (RecordIndex index : indexes) {
+            index.cleared();
+            index.addedAll(this);
+        }
+    }
+
+    // Records may only be added to partitions that have been read, writing a partition would lose the rest otherwise
+    private void LoadPartitionOf(Record r) {
+        if (partitions != null && !partitions.isLoaded(r.getDate().getYear()))
+            LoadPartitions(List.of(r.getDate().getYear()));
+    }
+
+    private void LoadPartitionsOf(Collection<? extends Record> added) {
+        if (partitions == null)
+            return;
+
+        Set<Integer> years = new TreeSet<>();
+        for (Record r : added) {
+            if (!partitions.isLoaded(r.getDate().getYear()))
+                years.add(r.getDate().getYear());
+        }
+        if (!years.isEmpty())
+            LoadPartitions(years);
+    }
+
+    // All the partitions get added in one batch, so the indexes are updated once
+    private void LoadPartitions(Collection<Integer> years) {
+        try {
+            List<Record> loaded = new ArrayList<>();
+            for (int year : years) {
+                loaded.addAll(partitions.Read(year));
+            }
+            // Marked before adding, so that adding them does not read the partitions again
+            for (int year : years) {
+                partitions.MarkLoaded(year);
+            }
+            // A record is in memory already only if an interrupted compaction wrote it to a partition as well. Files
+            // saved before manifests kept the highest ids may hold different records with the same id, those are kept
+            // under a new id.
+            Map<Long, Record> known = new HashMap<>();
+            List<Record> kept = new ArrayList<>(loaded.size());
+            for (Record r : loaded) {
+                Record other = idIndex.Get(r.getId());
+                if (other == null)
+                    other = known.putIfAbsent(r.getId(), r);
+                if (other == null)
+                    kept.add(r);
+                else if (!other.HasSameValues(r))
+                    kept.add(new Record(r.getDate(), r.getReasonId(), r.getAmount()));
+            }
+
+            Comparator<Record> currentOrdering = ordering;
+            addAll(kept);
+            if (currentOrdering != null) {
+                sort(currentOrdering);
+                ordering = currentOrdering;
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
 
     /**
-     * Prints the whole collection with a header
+     * Reads the partitions of the saved file that may contain records between two dates, unless they have been read
+     * already
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @throws IOException
      */
-    public void print() {
-        System.out.printf(PrintFormats.headerFormat, "Datum", "Důvod", "Částka");
+    public void LoadBetween(LocalDate from, LocalDate to) throws IOException {
+        if (partitions == null)
+            return;
 
-        PrintFormats.PrintHorizontalLine(PrintFormats.horizontalLineLength);
+        List<Integer> years = new ArrayList<>();
+        for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+            if (summary.last().isAfter(from) && summary.first().isBefore(to))
+                years.add(summary.year());
+        }
+        if (years.isEmpty())
+            return;
 
-        for (Record r : this) {
-            r.print();
+        try {
+            LoadPartitions(years);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
         }
+    }
 
-        PrintFormats.PrintHorizontalLine(PrintFormats.horizontalLineLength);
+    /**
+     * Reads the partitions of the saved file that records are going to be added to, unless they have been read
+     * already. Adding the records then cannot fail on reading a partition.
+     *
+     * @param added The records to be added
+     * @throws IOException
+     */
+    public void LoadPartitionsFor(Collection<? extends Record> added) throws IOException {
+        try {
+            LoadPartitionsOf(added);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Reads all partitions of the saved file that have not been read yet
+     *
+     * @throws IOException
+     */
+    public void LoadAll() throws IOException {
+        LoadBetween(LocalDate.MIN, LocalDate.MAX);
+    }
+
+    /**
+     * @return Whether some records of the saved file have not been read yet
+     */
+    public boolean isPartiallyLoaded() {
+        return partitions != null && !partitions.getUnloadedYears().isEmpty();
+    }
+
+    /**
+     * @return Contents of the collection to be written to its file, unread partitions only by their summaries
+     */
+    PartitionedFile.Snapshot TakeSnapshot() {
+        return partitions == null ? PartitionedFile.TakeFullSnapshot(this) : partitions.TakeSnapshot(this);
+    }
+
+    /**
+     * Finds a record by its id
+     *
+     * @param id The id of the record
+     * @return The record, null if the collection does not contain it
+     */
+    public Record FindById(long id) {
+        return idIndex.Get(id);
+    }
+
+    /**
+     * Removes a record by its id. The record is found in O(log n) while the collection is ordered by OrderByDate or
+     * OrderByAmount and by a scan otherwise, the records after it then move by one either way.
+     *
+     * @param id The id of the record
+     * @return Whether the collection contained the record
+     */
+    public boolean RemoveById(long id) {
+        Record r = idIndex.Get(id);
+        if (r == null)
+            return false;
+
+        remove(PositionOf(r));
+        return true;
+    }
+
+    // The position of a record of the collection, records with the same key as it are next to it while ordered
+    private int PositionOf(Record r) {
+        if (ordering == null)
+            return indexOf(r);
+
+        int low = 0, high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ordering.compare(get(middle), r) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        for (int i = low; i < size() && ordering.compare(get(i), r) == 0; i++) {
+            if (get(i) == r)
+                return i;
+        }
+        return indexOf(r);
+    }
+
+    /**
+     * Removes several records by their ids in a single pass over the collection
+     *
+     * @param ids The ids of the records
+     * @return Whether the collection contained any of the records
+     */
+    public boolean RemoveAllById(Collection<Long> ids) {
+        Set<Long> toBeRemoved = ids instanceof Set<Long> set ? set : new HashSet<>(ids);
+        return removeIf(r -> toBeRemoved.contains(r.getId()));
+    }
+
+    /**
+     * Registers another structure to be kept up to date with the collection
+     *
+     * @param index The structure, it gets all current records right away
+     */
+    void AddIndex(RecordIndex index) {
+        index.addedAll(this);
+        indexes.add(index);
+    }
+
+    /**
+     * Stops keeping a structure up to date with the collection
+     *
+     * @param index A structure registered by 'AddIndex'
+     */
+    void RemoveIndex(RecordIndex index) {
+        indexes.remove(index);
+    }
+
+    /**
+     * @return A number that changes with every change of the contents or order of the collection
+     */
+    int getModificationCount() {
+        return modCount;
+    }
+
+    /**
+     * @return The comparator the collection is currently ordered by, null if its order is not known
+     */
+    Comparator<Record> getOrdering() {
+        return ordering;
+    }
+
+    /**
+     * Prints the whole collection with a header and the running balance after every record
+     */
+    public void print() {
+        RecordRenderer renderer = new RecordRenderer();
+        renderer.setBalances(this::RunningBalances);
+        renderer.RenderAll(this, false);
     }
 
     /**
      * Prints the whole collection with an added 'ID' column (IDs match indices in collection)
      */
     public void printWithIndices() {
-        System.out.printf(PrintFormats.headerWithIdFormat, "ID", "Datum", "Důvod", "Částka");
+        new RecordRenderer().RenderAll(this, true);
+    }
+
+    /**
+     * @return Totals of the records in memory, kept up to date as records are added and removed
+     */
+    public Aggregates getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @return Totals by month and reason, kept up to date as records are added and removed
+     */
+    public MonthlyRollup getRollup() {
+        return rollup;
+    }
+
+    /**
+     * @return The total amount of all records, including the partitions that have not been read yet
+     */
+    public BigDecimal getTotalAmount() {
+        BigDecimal total = aggregates.getTotal();
+        if (partitions != null) {
+            for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+                total = total.add(summary.total());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the balance as of a date, reading the partition of its year if it is needed
+     *
+     * @param date A date
+     * @return The sum of all records up to the date (inclusive), including the partitions that have not been read yet
+     * @throws IOException
+     */
+    public BigDecimal getBalanceAsOf(LocalDate date) throws IOException {
+        LoadYearUpTo(date);
+        return UnloadedTotalUpTo(date).add(balanceIndex.getBalanceAsOf(date));
+    }
 
-        PrintFormats.PrintHorizontalLine(PrintFormats.horizontalLineWithIdsLength);
+    // Reads the partition of the year of a date if it has records up to the date
+    private void LoadYearUpTo(LocalDate date) throws IOException {
+        if (partitions == null)
+            return;
 
-        for (int i = 0; i < size(); i++) {
-            System.out.printf("%4s", i);
-            this.get(i).print();
+        for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+            if (summary.year() == date.getYear() && !summary.first().isAfter(date)) {
+                try {
+                    LoadPartitions(List.of(summary.year()));
+                } catch (UncheckedIOException exception) {
+                    throw exception.getCause();
+                }
+                return;
+            }
         }
+    }
 
-        PrintFormats.PrintHorizontalLine(PrintFormats.horizontalLineWithIdsLength);
+    /**
+     * Returns the sum of records between two dates, reading the partitions of their years if they are needed
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return The sum of the records between the dates, including the partitions that have not been read yet
+     * @throws IOException
+     */
+    public BigDecimal getSumBetween(LocalDate from, LocalDate to) throws IOException {
+        if (!from.isBefore(to))
+            return BigDecimal.ZERO;
+        return getBalanceAsOf(to.minusDays(1)).subtract(getBalanceAsOf(from));
     }
 
     /**
-     * Prints the total amount with formatting
+     * Returns the running balance after a record: the balance as of the previous day and the records of the same day
+     * up to this one in the order they were added in
+     *
+     * @param r A record of the collection
+     * @return The balance, including the partitions that have not been read yet
+     */
+    public BigDecimal getBalanceAfter(Record r) {
+        return RunningBalances().apply(r);
+    }
+
+    /**
+     * Returns running balances after records as 'getBalanceAfter' does, the first record asked for on a day computes
+     * the balances of the whole day, so rendering a day of 'k' records takes O(log n + k) instead of O(k^2)
+     *
+     * @return The balances, valid until the collection changes
+     */
+    public Function<Record, BigDecimal> RunningBalances() {
+        Map<Record, BigDecimal> known = new IdentityHashMap<>();
+        return r -> {
+            BigDecimal balance = known.get(r);
+            if (balance != null)
+                return balance;
+
+            LocalDate date = r.getDate();
+            balance = UnloadedTotalUpTo(date).add(balanceIndex.getBalanceAsOf(date.minusDays(1)));
+            for (Record sameDay : dateIndex.Between(date.minusDays(1), date.plusDays(1))) {
+                balance = balance.add(sameDay.getAmount());
+                known.put(sameDay, balance);
+            }
+            return known.getOrDefault(r, balance);
+        };
+    }
+
+    // A partition not read yet lies wholly before or wholly after any date of a partition that has been read
+    private BigDecimal UnloadedTotalUpTo(LocalDate date) {
+        BigDecimal total = BigDecimal.ZERO;
+        if (partitions == null)
+            return total;
+
+        for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+            if (!summary.last().isAfter(date))
+                total = total.add(summary.total());
+        }
+        return total;
+    }
+
+    /**
+     * @return The date of the oldest record, including the partitions that have not been read yet, null if there are
+     * no records
+     */
+    public LocalDate getFirstDate() {
+        LocalDate first = dateIndex.getSorted().isEmpty() ? null : dateIndex.getSorted().get(0).getDate();
+        if (partitions != null) {
+            for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+                if (first == null || summary.first().isBefore(first))
+                    first = summary.first();
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return The date of the newest record, including the partitions that have not been read yet, null if there are
+     * no records
+     */
+    public LocalDate getLastDate() {
+        List<Record> sorted = dateIndex.getSorted();
+        LocalDate last = sorted.isEmpty() ? null : sorted.get(sorted.size() - 1).getDate();
+        if (partitions != null) {
+            for (PartitionedFile.Summary summary : partitions.getUnloadedSummaries()) {
+                if (last == null || summary.last().isAfter(last))
+                    last = summary.last();
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Prints the total amount of all records with formatting
      */
     public void printTotalAmount() {
-        double totalAmount = this.stream().mapToDouble(record -> record.getAmount().doubleValue()).sum();
-        if(totalAmount > 0.0)
+        PrintTotalAmount(getTotalAmount());
+    }
+
+    /**
+     * Prints a given total amount with formatting
+     *
+     * @param totalAmount The amount to print
+     */
+    static void PrintTotalAmount(BigDecimal totalAmount) {
+        if(totalAmount.signum() > 0)
             System.out.printf(PrintFormats.totalFormatPositive, "Bilance:", totalAmount);
         else
             System.out.printf(PrintFormats.totalFormatNegative, "Bilance:", totalAmount);
     }
 
     /**
-     * Allows to order the records in the collection by date
+     * Allows to order the records in the collection by date, copying the order from the date index instead of sorting
      *
      * @param desc Descending/ascending order
      */
     public void OrderByDate(boolean desc) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.SORT);
         if (desc)
-            Collections.sort(this, Comparator.comparing(Record::getDate, Comparator.reverseOrder()));
+            ApplyOrder(dateIndex.getSorted(), true, Comparator.comparing(Record::getDate, Comparator.reverseOrder()));
         else
-            Collections.sort(this, Comparator.comparing(Record::getDate));
-
+            ApplyOrder(dateIndex.getSorted(), false, Comparator.comparing(Record::getDate));
+        timer.Stop(size(), 0);
     }
 
     /**
-     * Allows to order the records in the collection by amount
+     * Allows to order the records in the collection by amount, copying the order from the amount index instead of
+     * sorting
      *
      * @param desc Descending/ascending order
      */
     public void OrderByAmount(boolean desc) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.SORT);
         if (desc)
-            Collections.sort(this, Comparator.comparing(Record::getAmount, Comparator.reverseOrder()));
+            ApplyOrder(amountIndex.getSorted(), true, Comparator.comparing(Record::getAmount, Comparator.reverseOrder()));
         else
-            Collections.sort(this, Comparator.comparing(Record::getAmount));
+            ApplyOrder(amountIndex.getSorted(), false, Comparator.comparing(Record::getAmount));
+        timer.Stop(size(), 0);
+    }
+
+    // Rearranges the records to match an index, the contents stay the same so the indexes do not need to know
+    private void ApplyOrder(List<Record> ascending, boolean desc, Comparator<Record> newOrdering) {
+        int last = size() - 1;
+        for (int i = 0; i <= last; i++) {
+            super.set(i, desc ? ascending.get(last - i) : ascending.get(i));
+        }
+        modCount++;
+        ordering = newOrdering;
+    }
+
+    /**
+     * Finds the records with the highest or lowest amounts, taking them from the end of the amount index instead of
+     * sorting. Only records in memory are considered.
+     *
+     * @param n         Number of records to find
+     * @param desc      Highest (true) or lowest (false) amounts
+     * @param predicate A predicate the records have to match, null for all records
+     * @return At most 'n' records, ordered from the highest/lowest amount
+     */
+    public List<Record> TopByAmount(int n, boolean desc, Predicate<Record> predicate) {
+        return TopFromIndex(amountIndex.getSorted(), 0, n, desc, predicate);
+    }
+
+    /**
+     * Finds the newest or oldest records, taking them from the end of the date index instead of sorting. Only records
+     * in memory are considered.
+     *
+     * @param n         Number of records to find
+     * @param desc      Newest (true) or oldest (false) records
+     * @param predicate A predicate the records have to match, null for all records
+     * @return At most 'n' records, ordered from the newest/oldest
+     */
+    public List<Record> TopByDate(int n, boolean desc, Predicate<Record> predicate) {
+        return TopFromIndex(dateIndex.getSorted(), 0, n, desc, predicate);
+    }
+
+    /**
+     * Finds a page of records in the order of amounts, walking the amount index instead of sorting, regardless of the
+     * order of the collection. Only records in memory are considered.
+     *
+     * @param skip      Number of matching records before the page
+     * @param n         Number of records on the page
+     * @param desc      From the highest (true) or lowest (false) amount
+     * @param predicate A predicate the records have to match, null for all records
+     * @return At most 'n' records, ordered from the highest/lowest amount
+     */
+    public List<Record> PageByAmount(int skip, int n, boolean desc, Predicate<Record> predicate) {
+        return TopFromIndex(amountIndex.getSorted(), skip, n, desc, predicate);
+    }
+
+    /**
+     * Finds a page of records in the order of dates, walking the date index instead of sorting, regardless of the
+     * order of the collection. Records of the same day are in the order they were added in (reversed when descending).
+     * Only records in memory are considered.
+     *
+     * @param skip      Number of matching records before the page
+     * @param n         Number of records on the page
+     * @param desc      From the newest (true) or oldest (false) record
+     * @param predicate A predicate the records have to match, null for all records
+     * @return At most 'n' records, ordered from the newest/oldest
+     */
+    public List<Record> PageByDate(int skip, int n, boolean desc, Predicate<Record> predicate) {
+        return TopFromIndex(dateIndex.getSorted(), skip, n, desc, predicate);
+    }
+
+    // Without a predicate only the page is visited, with one the walk stops as soon as the page is full
+    private static List<Record> TopFromIndex(List<Record> ascending, int skip, int n, boolean desc,
+                                             Predicate<Record> predicate) {
+        if (n < 0 || skip < 0)
+            throw new IllegalArgumentException("Number of records cannot be negative");
+
+        int size = ascending.size();
+        int i = 0;
+        if (predicate == null) {
+            i = Math.min(skip, size);
+        } else {
+            for (int skipped = 0; i < size && skipped < skip; i++) {
+                if (predicate.test(ascending.get(desc ? size - 1 - i : i)))
+                    skipped++;
+            }
+        }
+
+        List<Record> found = new ArrayList<>(Math.min(n, size - i));
+        for (; i < size && found.size() < n; i++) {
+            Record r = ascending.get(desc ? size - 1 - i : i);
+            if (predicate == null || predicate.test(r))
+                found.add(r);
+        }
+        return found;
     }
 
     /**
@@ -88,10 +691,54 @@ public class ListOfRecords extends ArrayList<Record> {
      * @param predicate A predicate to use while filtering
      */
     public void Filter(Predicate<Record> predicate) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.FILTER);
+        int scanned = FilterInPlace(predicate);
+        timer.Stop(scanned, 0);
+    }
+
+    // Returns the number of records the predicate was tested on
+    private int FilterInPlace(Predicate<Record> predicate) {
+        int scanned = size();
         Stream<Record> recordStream = this.stream().filter(predicate);
         List<Record> filteredList = recordStream.toList();
+        ReplaceKeepingOrder(filteredList);
+        return scanned;
+    }
+
+    // Filtering does not change the order of the remaining records
+    private void ReplaceKeepingOrder(List<Record> filteredList) {
+        Comparator<Record> currentOrdering = ordering;
         this.clear();
         this.addAll(filteredList);
+        ordering = currentOrdering;
+    }
+
+    /**
+     * Finds the records between two dates using the date index, without going through the rest of the collection
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return A read-only view of the matching records in ascending order of their dates, valid until the collection
+     * changes
+     */
+    public List<Record> RecordsBetween(LocalDate from, LocalDate to) {
+        return dateIndex.Between(from, to);
+    }
+
+    /**
+     * Finds the records between two dates with amounts in a range by scanning the date and amount columns of the
+     * collection instead of testing the records
+     *
+     * @param from  A from date (exclusive)
+     * @param to    A to date (exclusive)
+     * @param range The bounds of the amounts
+     * @param timer Gets stopped with the number of compared rows, unless null is returned
+     * @return The matching records in ascending order of their dates, null when the columns cannot hold all amounts
+     * of the collection exactly
+     */
+    List<Record> FindInColumns(LocalDate from, LocalDate to, ColumnarRecordStore.AmountRange range,
+                               Metrics.Timer timer) {
+        return columns.Find(from, to, range, timer);
     }
 
     /**
@@ -102,12 +749,20 @@ public class ListOfRecords extends ArrayList<Record> {
      * @return A predicate created from dates entered as parameters
      */
     public Predicate<Record> FilterByDate(LocalDate from, LocalDate to) {
-        Predicate<Record> predicate = record -> record.getDate().isAfter(from) && record.getDate().isBefore(to);
-        Stream<Record> recordStream = this.stream().filter(predicate);
-        List<Record> filteredList = recordStream.toList();
-        this.clear();
-        this.addAll(filteredList);
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.FILTER);
+        Predicate<Record> predicate = DatePredicate(from, to);
+
+        if (ordering == null) {
+            // Without a known order the records have to stay where they are
+            timer.Stop(FilterInPlace(predicate), 0);
+            return predicate;
+        }
 
+        List<Record> filteredList = new ArrayList<>(RecordsBetween(from, to));
+        filteredList.sort(ordering);
+        ReplaceKeepingOrder(filteredList);
+
+        timer.Stop(filteredList.size(), 0);
         return predicate;
     }
 
@@ -119,69 +774,266 @@ public class ListOfRecords extends ArrayList<Record> {
      * @return A predicate created from amounts entered as parameters
      */
     public Predicate<Record> FilterByAmount(BigDecimal from, BigDecimal to) {
-        Predicate<Record> predicate = record -> record.getAmount().compareTo(from) > 0 && record.getAmount().compareTo(
-                to) < 0;
-        Stream<Record> recordStream = this.stream().filter(predicate);
-        List<Record> filteredList = recordStream.toList();
-        this.clear();
-        this.addAll(filteredList);
+        Predicate<Record> predicate = AmountPredicate(from, to);
+        Filter(predicate);
 
         return predicate;
     }
 
+    /**
+     * Allows to filter the records in the collection by a part of their reason, regardless of case and diacritics
+     *
+     * @param text The searched text
+     * @return A predicate created from the text entered as parameter
+     */
+    public Predicate<Record> FilterByReason(String text) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.FILTER);
+        Predicate<Record> predicate = ReasonPredicate(text);
+
+        if (ordering == null) {
+            // Without a known order the records have to stay where they are
+            timer.Stop(FilterInPlace(predicate), 0);
+            return predicate;
+        }
 
-    private DataOutputStream OpenFileForWriting(String filename, boolean append) throws FileNotFoundException {
-        FileOutputStream fos = new FileOutputStream(filename, append);
-        BufferedOutputStream bos = new BufferedOutputStream(fos);
+        List<Record> filteredList = FindByReason(text);
+        filteredList.sort(ordering);
+        ReplaceKeepingOrder(filteredList);
 
-        return new DataOutputStream(bos);
+        timer.Stop(filteredList.size(), 0);
+        return predicate;
     }
 
-    private DataInputStream OpenFileForReading(String filename) throws FileNotFoundException {
-        FileInputStream fis = new FileInputStream(filename);
-        BufferedInputStream bis = new BufferedInputStream(fis);
+    /**
+     * Finds the records containing a given text in their reason using the reason index, regardless of case and
+     * diacritics
+     *
+     * @param text The searched text
+     * @return The matching records, grouped by reason
+     */
+    public List<Record> FindByReason(String text) {
+        return reasonIndex.Find(ReasonIndex.Normalize(text));
+    }
 
-        return new DataInputStream(bis);
+    /**
+     * Creates a predicate matching records containing a given text in their reason, regardless of case and diacritics
+     *
+     * @param text The searched text
+     * @return The predicate
+     */
+    public Predicate<Record> ReasonPredicate(String text) {
+        String normalizedText = ReasonIndex.Normalize(text);
+        return record -> reasonIndex.Matches(record.getReasonId(), normalizedText);
+    }
+
+    /**
+     * Creates a predicate matching records between two dates
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return The predicate
+     */
+    static Predicate<Record> DatePredicate(LocalDate from, LocalDate to) {
+        return record -> record.getDate().isAfter(from) && record.getDate().isBefore(to);
     }
 
-    private void WriteRecord(DataOutputStream out, Record r) throws IOException {
+    /**
+     * Creates a predicate matching records between two amounts
+     *
+     * @param from A from amount (exclusive)
+     * @param to   A to amount (exclusive)
+     * @return The predicate
+     */
+    static Predicate<Record> AmountPredicate(BigDecimal from, BigDecimal to) {
+        return record -> record.getAmount().compareTo(from) > 0 && record.getAmount().compareTo(to) < 0;
+    }
+
+    /**
+     * Creates a predicate matching records between two amounts, a missing bound is not compared at all
+     *
+     * @param min A from amount (inclusive), null for no lower bound
+     * @param max A to amount (inclusive), null for no upper bound
+     * @return The predicate
+     */
+    static Predicate<Record> AmountRangePredicate(BigDecimal min, BigDecimal max) {
+        if (min == null && max == null)
+            return record -> true;
+        if (min == null)
+            return record -> record.getAmount().compareTo(max) <= 0;
+        if (max == null)
+            return record -> record.getAmount().compareTo(min) >= 0;
+        return record -> record.getAmount().compareTo(min) >= 0 && record.getAmount().compareTo(max) <= 0;
+    }
+
+    /**
+     * Creates a predicate matching income (signum 1) or expenses (signum -1)
+     *
+     * @param signum The sign of the matching amounts
+     * @return The predicate
+     */
+    static Predicate<Record> SignPredicate(int signum) {
+        return record -> record.getAmount().signum() == signum;
+    }
+
+
+    /**
+     * Imports records from a CSV file (date, reason, amount) and adds them to the collection in one batch
+     *
+     * @param filename The name of the CSV file
+     * @return The imported records, the rejected rows and the time it took
+     * @throws IOException
+     */
+    public CsvImporter.Result ImportCsv(String filename) throws IOException {
+        CsvImporter.Result result = CsvImporter.Import(Path.of(filename));
+        LoadPartitionsFor(result.getRecords());
+        this.addAll(result.getRecords());
+        return result;
+    }
+
+    /**
+     * Writes all records to a compressed archive ordered by date, reading the partitions that have not been read
+     *
+     * @param filename The name of the archive
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    public long ExportArchive(String filename) throws IOException {
+        LoadAll();
+        return RecordArchive.Export(Path.of(filename), this);
+    }
+
+    /**
+     * Reads records from a compressed archive and adds them to the collection in one batch, the archive itself is
+     * decoded as a stream
+     *
+     * @param filename The name of the archive
+     * @return Number of imported records
+     * @throws IOException
+     */
+    public long ImportArchive(String filename) throws IOException {
+        List<Record> imported = new ArrayList<>();
+        long count = RecordArchive.Import(Path.of(filename), imported::add);
+        LoadPartitionsFor(imported);
+        this.addAll(imported);
+        return count;
+    }
+
+    /**
+     * Writes a record as three writeUTF strings, the way the old save format did (still used by the journal)
+     */
+    static void WriteRecord(DataOutputStream out, Record r) throws IOException {
         out.writeUTF(r.getDate().toString());
         out.writeUTF(r.getReason());
         out.writeUTF(r.getAmount().toString());
     }
 
-    private Record LoadRecord(DataInputStream di) throws IOException {
-        return new Record(LocalDate.parse(di.readUTF()), di.readUTF(), new BigDecimal(di.readUTF()));
+    static Record LoadRecord(DataInputStream di) throws IOException {
+        return new Record(TextCodec.ParseIsoDate(di.readUTF()), di.readUTF(), TextCodec.ParseAmount(di.readUTF()));
+    }
+
+    static Record LoadRecord(long id, DataInputStream di) throws IOException {
+        LocalDate date = TextCodec.ParseIsoDate(di.readUTF());
+        int reasonId = ReasonDictionary.getShared().IdOf(di.readUTF());
+        return new Record(id, date, reasonId, TextCodec.ParseAmount(di.readUTF()));
     }
 
     /**
-     * Writes the entire collection to a given file
+     * Writes the entire collection to a given file, split into partitions by year. Each partition and then the
+     * manifest is written to a temporary file first which then atomically replaces the previous one, so a crash while
+     * writing leaves the previous content intact. Partitions of the file the collection was read from that have not
+     * been read are left as they are.
      *
      * @param filename The name of the file
      * @throws IOException
      */
     public void WriteToFile(String filename) throws IOException {
-        DataOutputStream out = OpenFileForWriting(filename, false);
-        for (Record r : this) {
-            WriteRecord(out, r);
-        }
-        out.close();
+        if (partitions != null && !partitions.getFilename().equals(filename))
+            LoadAll();
+        PartitionedFile.Write(Path.of(filename), TakeSnapshot());
     }
 
     /**
-     * Reads the entire collection from a given file
+     * Reads the newest partition of a given file and replays changes logged in its journal, older partitions are read
+     * when they are needed. A file in an older format gets read whole and rewritten in the current one.
      *
      * @param filename The name of the file
+     * @throws NoSuchFileException When the file does not exist, changes logged before it was first written are
+     *                             replayed anyway
      * @throws IOException
      */
     public void ReadFromFile(String filename) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.LOAD);
+        long bytes = 0;
+
         this.clear();
+        partitions = null;
+
+        try {
+            Path path = Path.of(filename);
+            if (!Files.exists(path)) {
+                Journal.Replay(filename, this);
+                throw new NoSuchFileException(filename);
+            }
+            // Partitions read along with the manifest are measured on their own
+            bytes = Files.size(path);
+            if (PartitionedFile.IsManifest(path)) {
+                List<PartitionedFile.Summary> summaries = PartitionedFile.ReadManifest(path);
+                partitions = new PartitionedFile(filename, summaries);
+                // New records must not take the ids of records in partitions that have not been read
+                boolean idsKnown = true;
+                for (PartitionedFile.Summary summary : summaries) {
+                    if (summary.maxId() < 0)
+                        idsKnown = false;
+                    Record.ReserveIds(summary.maxId());
+                }
 
-        try (DataInputStream in = OpenFileForReading(filename)) {
+                if (Files.exists(Path.of(filename + ".tmp")) || !idsKnown) {
+                    // An interrupted compaction may have left summaries that do not match the partitions, an old
+                    // manifest does not know the ids of its partitions
+                    LoadAll();
+                } else if (partitions.getLastYear() != null) {
+                    LoadPartitions(List.of(partitions.getLastYear()));
+                }
+            } else if (RecordFile.IsRecordFile(path)) {
+                RecordFile.Read(path, this);
+                WriteToFile(filename);
+            } else {
+                ReadOldFormat(filename);
+                WriteToFile(filename);
+            }
+            // Only changes of a file that was read are replayed, on top of a damaged one they would be lost
+            Journal.Replay(filename, this);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        } finally {
+            timer.Stop(size(), bytes);
+        }
+    }
+
+    private void ReadOldFormat(String filename) throws IOException {
+        ReadOldFormat(Path.of(filename), this::add);
+    }
+
+    /**
+     * Reads a file in the old format, where the records follow each other with nothing else around them
+     * <p>
+     * The file may only end between records, anything else means it is not in this format or it is damaged.
+     *
+     * @param path   A path to the file
+     * @param action Gets every record of the file in the order they are saved
+     * @throws IOException When the file cannot be read or is damaged
+     */
+    static void ReadOldFormat(Path path, Consumer<Record> action) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
             while (true) {
-                this.add(LoadRecord(in));
+                in.mark(1);
+                if (in.read() < 0)
+                    break;
+                in.reset();
+                action.accept(LoadRecord(in));
             }
-        } catch (EOFException eofException) {
+        } catch (EOFException | DateTimeParseException | NumberFormatException exception) {
+            throw new IOException("Damaged or unknown file format: " + path, exception);
         }
     }
 }
@@ -1,10 +1,235 @@
 package cz.upol.jj.finance_keeper;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
+    private static final String usage =
+            "Použití: finance_keeper [--durability=change|interval|exit] [--interval=<ms>] [--stats]"
+                    + " [--server[=<port>] | --connect[=<port>] | --batch=<soubor> | --batch [<požadavek>...]"
+                    + " | --query [<krok>...]]";
 
     public static void main(String[] args) {
-        Client c = new Client();
+        PersistenceWorker.Durability durability = PersistenceWorker.Durability.EVERY_CHANGE;
+        long intervalMillis = 1000;
+        boolean printStats = false;
+        Integer serverPort = null;
+        Integer connectPort = null;
+        boolean batch = false;
+        String batchScript = null;
+        List<String> batchRequests = null;
+        List<String> querySteps = null;
+
+        for (String arg : args) {
+            // Everything after a bare '--batch' are requests, everything after '--query' are steps of the query
+            if (batchRequests != null) {
+                batchRequests.add(arg);
+                continue;
+            }
+            if (querySteps != null) {
+                querySteps.add(arg);
+                continue;
+            }
+
+            try {
+                if (arg.startsWith("--durability=")) {
+                    durability = switch (arg.substring("--durability=".length())) {
+                        case "change" -> PersistenceWorker.Durability.EVERY_CHANGE;
+                        case "interval" -> PersistenceWorker.Durability.INTERVAL;
+                        case "exit" -> PersistenceWorker.Durability.ON_EXIT;
+                        default -> throw new IllegalArgumentException(arg);
+                    };
+                } else if (arg.equals("--stats")) {
+                    printStats = true;
+                } else if (arg.startsWith("--server")) {
+                    serverPort = ParsePort(arg, "--server");
+                } else if (arg.equals("--batch")) {
+                    batch = true;
+                    batchRequests = new ArrayList<>();
+                } else if (arg.startsWith("--batch=")) {
+                    batch = true;
+                    batchScript = arg.substring("--batch=".length());
+                } else if (arg.equals("--query")) {
+                    querySteps = new ArrayList<>();
+                } else if (arg.startsWith("--connect")) {
+                    connectPort = ParsePort(arg, "--connect");
+                } else if (arg.startsWith("--interval=")) {
+                    intervalMillis = Long.parseLong(arg.substring("--interval=".length()));
+                    if (intervalMillis < 1)
+                        throw new IllegalArgumentException(arg);
+                } else {
+                    throw new IllegalArgumentException(arg);
+                }
+            } catch (IllegalArgumentException exception) {
+                System.out.println("Neplatný parametr: " + arg);
+                System.out.println(usage);
+                return;
+            }
+        }
+
+        if (batch) {
+            int failures = RunBatch(batchScript, batchRequests);
+            if (printStats)
+                Metrics.print();
+            if (failures > 0)
+                System.exit(1);
+            return;
+        }
+
+        if (querySteps != null) {
+            boolean succeeded = RunQuery(querySteps);
+            if (printStats)
+                Metrics.print();
+            if (!succeeded)
+                System.exit(1);
+            return;
+        }
+
+        if (connectPort != null) {
+            try {
+                RemoteClient.Run(connectPort);
+            } catch (IOException exception) {
+                System.out.println("Nelze se připojit k serveru na portu " + connectPort + ".");
+            }
+            return;
+        }
+
+        if (serverPort != null) {
+            Serve(serverPort, durability, intervalMillis);
+            return;
+        }
+
+        Client c;
+        try {
+            c = new Client(durability, intervalMillis);
+        } catch (IOException exception) {
+            System.out.println("Uložená data nelze načíst: " + exception.getMessage());
+            System.exit(1);
+            return;
+        }
 
         c.Loop();
+
+        if (printStats)
+            Metrics.print();
+    }
+
+    // Requests come from the script or the arguments, from the standard input if there are neither
+    private static int RunBatch(String script, List<String> requests) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        try (BatchRunner runner = new BatchRunner("saved_data", out)) {
+            if (script != null) {
+                try (BufferedReader in = Files.newBufferedReader(Path.of(script), StandardCharsets.UTF_8)) {
+                    runner.Run(in);
+                }
+            } else if (requests == null || requests.isEmpty()) {
+                runner.Run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+            } else {
+                runner.Run(requests);
+            }
+            return runner.getFailureCount();
+        } catch (IOException exception) {
+            out.println("ERR Chyba při práci se souborem.");
+            out.flush();
+            return 1;
+        }
+    }
+
+    /*
+     * Runs a StreamingQuery over the saved file, which never gets read into memory as a whole. The steps are
+     * 'FILTER ...' and 'ORDER ...' as in the batch requests, and 'TOTALS' to respond with
+     * 'OK count total income expenses' instead of the records.
+     */
+    private static boolean RunQuery(List<String> steps) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        StreamingQuery query = new StreamingQuery("saved_data");
+        boolean totals = false;
+
+        for (String step : steps) {
+            String[] parts = Requests.Split(step);
+            try {
+                switch (parts[0]) {
+                    case "FILTER" -> Requests.ParseFilter(parts[1]).ApplyTo(query);
+                    case "ORDER" -> {
+                        Requests.Order order = Requests.ParseOrder(parts[1]);
+                        if (order.byAmount())
+                            query.OrderByAmount(order.desc());
+                        else
+                            query.OrderByDate(order.desc());
+                    }
+                    case "TOTALS" -> totals = true;
+                    default -> throw new IllegalArgumentException(parts[0]);
+                }
+            } catch (IllegalArgumentException | DateTimeParseException exception) {
+                out.println("ERR Špatně zadaný krok: " + step);
+                out.flush();
+                return false;
+            }
+        }
+
+        try {
+            if (totals) {
+                StreamingQuery.Totals result = query.Aggregate();
+                out.println("OK " + result.count() + " " + result.total().toPlainString() + " "
+                        + result.income().toPlainString() + " " + result.expenses().toPlainString());
+            } else {
+                StringBuilder line = new StringBuilder();
+                long count = query.ForEach(r -> {
+                    line.setLength(0);
+                    Requests.AppendRecord(line, r);
+                    out.append(line);
+                });
+                out.println("OK " + count);
+            }
+            out.flush();
+            return true;
+        } catch (IOException exception) {
+            out.println("ERR Chyba při práci se souborem.");
+            out.flush();
+            return false;
+        }
+    }
+
+    private static int ParsePort(String arg, String option) {
+        if (arg.equals(option))
+            return RecordServer.defaultPort;
+        if (!arg.startsWith(option + "="))
+            throw new IllegalArgumentException(arg);
+
+        int port = Integer.parseInt(arg.substring(option.length() + 1));
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException(arg);
+        return port;
+    }
+
+    private static void Serve(int port, PersistenceWorker.Durability durability, long intervalMillis) {
+        RecordServer server;
+        try {
+            server = new RecordServer("saved_data", port, durability, intervalMillis);
+        } catch (IOException exception) {
+            System.out.println("Server nelze spustit: " + exception.getMessage());
+            return;
+        }
+
+        // Ctrl+C stops the server, the saved file still gets rewritten
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException exception) {
+                System.out.println("Chyba při zápisu do souboru.");
+            }
+        }));
+
+        System.out.println("Server běží na portu " + server.getPort() + ".");
+        try {
+            server.Serve();
+        } catch (IOException exception) {
+            System.out.println("Chyba serveru: " + exception.getMessage());
+        }
     }
 }
@@ -0,0 +1,162 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, latencies, bytes and records of the main operations for the whole run of the program.
+ * <p>
+ * Every measurement is also emitted as an OperationEvent, so a Flight Recorder recording (e.g. started with
+ * '-XX:StartFlightRecording') shows the operations in the timeline. Latencies are kept in a histogram with buckets of
+ * powers of two microseconds, so recording a measurement takes a few atomic additions. Starting one allocates two
+ * small objects, the Timer and its event, which is why only whole operations are measured and not single records.
+ */
+public class Metrics {
+    /**
+     * The measured operations
+     */
+    public enum Operation {
+        LOAD("načtení"),
+        PARTITION_LOAD("načtení oddílu"),
+        SAVE("uložení"),
+        JOURNAL_SYNC("zápis žurnálu"),
+        IMPORT("import"),
+        EXPORT("export"),
+        FILTER("filtrování"),
+        QUERY("dotaz nad souborem"),
+        SORT("řazení"),
+        RENDER("vykreslení");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Bucket i holds latencies of [2^(i-1), 2^i) microseconds, the last one everything longer
+    private static final int bucketCount = 32;
+
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder records = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLongArray histogram = new AtomicLongArray(bucketCount);
+    }
+
+    private static final Stats[] stats = new Stats[Operation.values().length];
+
+    static {
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    /**
+     * A running measurement of an operation
+     */
+    public static final class Timer {
+        private final Operation operation;
+        private final OperationEvent event = new OperationEvent();
+        private final long start;
+
+        private Timer(Operation operation) {
+            this.operation = operation;
+            event.begin();
+            start = System.nanoTime();
+        }
+
+        /**
+         * Ends the measurement and records it
+         *
+         * @param records Number of records the operation read, wrote, scanned or rendered
+         * @param bytes   Number of bytes the operation read or wrote, characters for rendering
+         */
+        public void Stop(long records, long bytes) {
+            Record(operation, System.nanoTime() - start, records, bytes);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation.name();
+                event.records = records;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Starts measuring an operation
+     *
+     * @param operation The operation
+     * @return The measurement, to be stopped when the operation ends
+     */
+    public static Timer Start(Operation operation) {
+        return new Timer(operation);
+    }
+
+    private static void Record(Operation operation, long nanos, long records, long bytes) {
+        Stats s = stats[operation.ordinal()];
+        s.count.increment();
+        s.totalNanos.add(nanos);
+        s.maxNanos.accumulateAndGet(nanos, Math::max);
+        s.records.add(records);
+        s.bytes.add(bytes);
+        s.histogram.incrementAndGet(Math.min(bucketCount - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000)));
+    }
+
+    /**
+     * @param operation An operation
+     * @return How many times the operation was measured
+     */
+    public static long getCount(Operation operation) {
+        return stats[operation.ordinal()].count.sum();
+    }
+
+    /**
+     * Forgets all measurements
+     */
+    public static void Reset() {
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    // An upper estimate of a percentile: the upper bound of the bucket it falls into
+    private static double PercentileMillis(Stats s, long count, double percentile) {
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            seen += s.histogram.get(i);
+            if (seen >= rank)
+                return Math.min((1L << i) / 1000.0, s.maxNanos.get() / 1e6);
+        }
+        return s.maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Prints a table of all operations measured so far
+     */
+    public static void print() {
+        System.out.printf(PrintFormats.metricsHeaderFormat, "operace", "počet", "celkem [ms]", "průměr [ms]",
+                "p50 [ms]", "p90 [ms]", "p99 [ms]", "max [ms]", "záznamy", "bajty");
+        for (Operation operation : Operation.values()) {
+            Stats s = stats[operation.ordinal()];
+            long count = s.count.sum();
+            if (count == 0)
+                continue;
+
+            double totalMillis = s.totalNanos.sum() / 1e6;
+            System.out.printf(PrintFormats.metricsRowFormat, operation.getLabel(), count, totalMillis,
+                    totalMillis / count, PercentileMillis(s, count, 0.5), PercentileMillis(s, count, 0.9),
+                    PercentileMillis(s, count, 0.99), s.maxNanos.get() / 1e6, s.records.sum(), s.bytes.sum());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * Totals of records grouped by month and reason, kept up to date as records are added and removed.
+ * <p>
+ * Every month × reason cell is an Aggregates of its own, so reports over any range of months take time proportional
+ * to the number of cells in the range instead of the number of records.
+ */
+public class MonthlyRollup implements RecordIndex {
+    private final TreeMap<YearMonth, Map<Integer, Aggregates>> months = new TreeMap<>();
+
+    @Override
+    public void added(Record r) {
+        months.computeIfAbsent(YearMonth.from(r.getDate()), month -> new HashMap<>())
+                .computeIfAbsent(r.getReasonId(), reasonId -> new Aggregates())
+                .added(r);
+    }
+
+    @Override
+    public void removed(Record r) {
+        YearMonth month = YearMonth.from(r.getDate());
+        Map<Integer, Aggregates> reasons = months.get(month);
+        if (reasons == null)
+            return;
+
+        Aggregates cell = reasons.get(r.getReasonId());
+        if (cell == null)
+            return;
+
+        cell.removed(r);
+        if (cell.getCount() == 0) {
+            reasons.remove(r.getReasonId());
+            if (reasons.isEmpty())
+                months.remove(month);
+        }
+    }
+
+    @Override
+    public void cleared() {
+        months.clear();
+    }
+
+    /**
+     * Returns the totals of one month and reason
+     *
+     * @param month    The month
+     * @param reasonId Id of the reason in the shared ReasonDictionary
+     * @return The totals, null if there are no such records
+     */
+    public Aggregates getCell(YearMonth month, int reasonId) {
+        Map<Integer, Aggregates> reasons = months.get(month);
+        return reasons == null ? null : reasons.get(reasonId);
+    }
+
+    /**
+     * Returns the totals of all reasons in a range of months
+     *
+     * @param from The first month (inclusive)
+     * @param to   The last month (inclusive)
+     * @return Totals by reason id for every month of the range that has any records, in ascending order of months
+     */
+    public SortedMap<YearMonth, Map<Integer, Aggregates>> getMonths(YearMonth from, YearMonth to) {
+        if (from.isAfter(to))
+            return Collections.emptySortedMap();
+        return Collections.unmodifiableSortedMap(months.subMap(from, true, to, true));
+    }
+
+    /**
+     * @return The first month with any records, null if there are none
+     */
+    public YearMonth getFirstMonth() {
+        return months.isEmpty() ? null : months.firstKey();
+    }
+
+    /**
+     * @return The last month with any records, null if there are none
+     */
+    public YearMonth getLastMonth() {
+        return months.isEmpty() ? null : months.lastKey();
+    }
+
+    /**
+     * Prints totals by month and reason for a range of months, with a total for each month
+     *
+     * @param from The first month (inclusive)
+     * @param to   The last month (inclusive)
+     */
+    public void printReport(YearMonth from, YearMonth to) {
+        StringBuilder buffer = new StringBuilder();
+        Formatter formatter = new Formatter(buffer);
+        ReasonDictionary dictionary = ReasonDictionary.getShared();
+
+        formatter.format(PrintFormats.reportHeaderFormat, "Měsíc", "Důvod", "Počet", "Součet", "Min", "Max");
+        buffer.append(PrintFormats.reportHorizontalLine);
+
+        for (Map.Entry<YearMonth, Map<Integer, Aggregates>> month : getMonths(from, to).entrySet()) {
+            String monthName = month.getKey().format(PrintFormats.monthFormat);
+
+            List<Map.Entry<Integer, Aggregates>> cells = new ArrayList<>(month.getValue().entrySet());
+            cells.sort(Comparator.comparing(cell -> cell.getValue().getTotal()));
+
+            BigDecimal monthTotal = BigDecimal.ZERO;
+            int monthCount = 0;
+            for (Map.Entry<Integer, Aggregates> cell : cells) {
+                Aggregates totals = cell.getValue();
+                formatter.format(PrintFormats.reportRowFormat, monthName, dictionary.ReasonOf(cell.getKey()),
+                        totals.getCount(), totals.getTotal(), totals.getMin(), totals.getMax());
+                monthTotal = monthTotal.add(totals.getTotal());
+                monthCount += totals.getCount();
+            }
+            formatter.format(PrintFormats.reportTotalFormat, monthName, "celkem", monthCount, monthTotal);
+            buffer.append(PrintFormats.reportHorizontalLine);
+        }
+
+        System.out.append(buffer);
+        System.out.flush();
+    }
+}
@@ -0,0 +1,25 @@
+package cz.upol.jj.finance_keeper;
+
+import jdk.jfr.*;
+
+/**
+ * A JDK Flight Recorder event of an operation measured by Metrics, recorded when a recording enables it (it is
+ * enabled by default with a threshold of 0 ms)
+ */
+@Name("cz.upol.jj.finance_keeper.Operation")
+@Label("Finance Keeper Operation")
+@Category("Finance Keeper")
+@Description("Loading, saving, filtering, ordering or rendering of records")
+@StackTrace(false)
+class OperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Records")
+    @Description("Records read, written, scanned or rendered")
+    long records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
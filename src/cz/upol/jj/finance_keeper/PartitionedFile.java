@@ -0,0 +1,275 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * A saved file split into one partition per year, so that only the years in use have to be read.
+ * <p>
+ * The base file is a manifest with a summary of every partition, the records of a year are in a RecordFile named
+ * after the base file and the year (e.g. 'saved_data.2024'). Manifest layout (big endian): magic number (int), schema
+ * version (int), partition count (int) and for every partition its year (int), record count (int), the highest record
+ * id (long, since version 2), epoch days of the first and last record (int, int) and the total, income and expenses
+ * (writeUTF strings).
+ * <p>
+ * An instance keeps track of the partitions of a loaded collection: which of them have been read and the summaries of
+ * the others, which stand in for their records until they are read.
+ */
+class PartitionedFile {
+    static final int magic = 0x464B504D; // "FKPM"
+    static final int schemaVersion = 2;
+
+    /**
+     * What a partition contains, without its records. The highest id lets new records get ids of their own while the
+     * partition is not read, it is -1 in manifests of version 1 that do not know it.
+     */
+    record Summary(int year, int count, long maxId, LocalDate first, LocalDate last, BigDecimal total,
+                   BigDecimal income, BigDecimal expenses) {
+        static Summary Of(int year, List<Record> records) {
+            BigDecimal income = BigDecimal.ZERO, expenses = BigDecimal.ZERO;
+            LocalDate first = LocalDate.MAX, last = LocalDate.MIN;
+            long maxId = 0;
+            for (Record r : records) {
+                maxId = Math.max(maxId, r.getId());
+                if (r.getAmount().signum() > 0)
+                    income = income.add(r.getAmount());
+                else
+                    expenses = expenses.add(r.getAmount());
+                if (r.getDate().isBefore(first))
+                    first = r.getDate();
+                if (r.getDate().isAfter(last))
+                    last = r.getDate();
+            }
+            return new Summary(year, records.size(), maxId, first, last, income.add(expenses), income, expenses);
+        }
+    }
+
+    /**
+     * Contents to be written: records of the read partitions by year and summaries of the rest
+     */
+    record Snapshot(Map<Integer, List<Record>> loaded, List<Summary> unloaded) {
+    }
+
+    private final String filename;
+    private final TreeMap<Integer, Summary> summaries = new TreeMap<>();
+    private final Set<Integer> loaded = new HashSet<>();
+
+    /**
+     * @param filename  The name of the base file
+     * @param summaries Summaries of all partitions from the manifest, none of them read yet
+     */
+    PartitionedFile(String filename, List<Summary> summaries) {
+        this.filename = filename;
+        for (Summary summary : summaries) {
+            this.summaries.put(summary.year(), summary);
+        }
+    }
+
+    String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return Years of the partitions not read yet, in ascending order
+     */
+    List<Integer> getUnloadedYears() {
+        List<Integer> years = new ArrayList<>();
+        for (int year : summaries.keySet()) {
+            if (!loaded.contains(year))
+                years.add(year);
+        }
+        return years;
+    }
+
+    /**
+     * @return Summaries of the partitions not read yet
+     */
+    List<Summary> getUnloadedSummaries() {
+        List<Summary> unloaded = new ArrayList<>();
+        for (int year : getUnloadedYears()) {
+            unloaded.add(summaries.get(year));
+        }
+        return unloaded;
+    }
+
+    /**
+     * @return The year of the newest partition, null if there are none
+     */
+    Integer getLastYear() {
+        return summaries.isEmpty() ? null : summaries.lastKey();
+    }
+
+    boolean isLoaded(int year) {
+        return !summaries.containsKey(year) || loaded.contains(year);
+    }
+
+    /**
+     * Reads a partition, it has to be marked as read once its records are added to the collection
+     *
+     * @param year The year of the partition, it must not have been read yet
+     * @return The records of the partition
+     * @throws IOException
+     */
+    List<Record> Read(int year) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.PARTITION_LOAD);
+        List<Record> records = new ArrayList<>(summaries.get(year).count());
+        long bytes = RecordFile.Read(PartitionPath(filename, year), records);
+        timer.Stop(records.size(), bytes);
+        return records;
+    }
+
+    void MarkLoaded(int year) {
+        loaded.add(year);
+    }
+
+    /**
+     * Groups records by year for writing, partitions that got read but are empty now are included as well so that
+     * they get deleted
+     *
+     * @param records All the records in memory
+     * @return The snapshot, it does not change with the records
+     */
+    Snapshot TakeSnapshot(List<Record> records) {
+        Map<Integer, List<Record>> byYear = GroupByYear(records);
+        for (int year : loaded) {
+            byYear.putIfAbsent(year, new ArrayList<>());
+        }
+        return new Snapshot(byYear, getUnloadedSummaries());
+    }
+
+    /**
+     * Groups records by year for writing when all of them are in memory
+     *
+     * @param records All the records
+     * @return The snapshot, it does not change with the records
+     */
+    static Snapshot TakeFullSnapshot(List<Record> records) {
+        return new Snapshot(GroupByYear(records), List.of());
+    }
+
+    private static Map<Integer, List<Record>> GroupByYear(List<Record> records) {
+        Map<Integer, List<Record>> byYear = new TreeMap<>();
+        for (Record r : records) {
+            byYear.computeIfAbsent(r.getDate().getYear(), year -> new ArrayList<>()).add(r);
+        }
+        return byYear;
+    }
+
+    static Path PartitionPath(String filename, int year) {
+        return Path.of(filename + "." + year);
+    }
+
+    /**
+     * Checks whether a file starts with the magic number of a manifest
+     *
+     * @param path The file to check
+     * @return False for other formats
+     * @throws IOException
+     */
+    static boolean IsManifest(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path.toFile()))) {
+            return in.readInt() == magic;
+        } catch (EOFException eofException) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the summaries of all partitions
+     *
+     * @param path The manifest
+     * @return The summaries in ascending order of years
+     * @throws IOException
+     */
+    static List<Summary> ReadManifest(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path.toFile())))) {
+            if (in.readInt() != magic)
+                throw new IOException("Not a manifest: " + path);
+            int version = in.readInt();
+            if (version < 1 || version > schemaVersion)
+                throw new IOException("Unsupported schema version " + version + ": " + path);
+
+            int count = in.readInt();
+            if (count < 0)
+                throw new IOException("Damaged manifest: " + path);
+            List<Summary> summaries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                summaries.add(new Summary(in.readInt(), in.readInt(), version >= 2 ? in.readLong() : -1,
+                        LocalDate.ofEpochDay(in.readInt()), LocalDate.ofEpochDay(in.readInt()),
+                        new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF())));
+            }
+            if (in.read() >= 0)
+                throw new IOException("Damaged manifest: " + path);
+            return summaries;
+        } catch (EOFException | DateTimeException | NumberFormatException exception) {
+            throw new IOException("Damaged manifest: " + path, exception);
+        }
+    }
+
+    /**
+     * Writes the read partitions of a snapshot and then the manifest, each to a temporary file that atomically
+     * replaces the previous one. Files of partitions that became empty are deleted afterwards.
+     *
+     * @param base     The base file
+     * @param snapshot The contents to write
+     * @throws IOException
+     */
+    static void Write(Path base, Snapshot snapshot) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.SAVE);
+        long records = 0, bytes = 0;
+
+        List<Summary> summaries = new ArrayList<>(snapshot.unloaded());
+        List<Integer> emptied = new ArrayList<>();
+
+        for (Map.Entry<Integer, List<Record>> partition : snapshot.loaded().entrySet()) {
+            int year = partition.getKey();
+            if (partition.getValue().isEmpty()) {
+                emptied.add(year);
+                continue;
+            }
+
+            Path path = PartitionPath(base.toString(), year);
+            Path saving = Path.of(path + ".saving");
+            bytes += RecordFile.Write(partition.getValue(), saving);
+            records += partition.getValue().size();
+            Files.move(saving, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            summaries.add(Summary.Of(year, partition.getValue()));
+        }
+        summaries.sort(Comparator.comparingInt(Summary::year));
+
+        Path saving = Path.of(base + ".saving");
+        try (FileOutputStream fileOut = new FileOutputStream(saving.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(magic);
+            out.writeInt(schemaVersion);
+            out.writeInt(summaries.size());
+            for (Summary summary : summaries) {
+                out.writeInt(summary.year());
+                out.writeInt(summary.count());
+                out.writeLong(summary.maxId());
+                out.writeInt((int) summary.first().toEpochDay());
+                out.writeInt((int) summary.last().toEpochDay());
+                out.writeUTF(summary.total().toString());
+                out.writeUTF(summary.income().toString());
+                out.writeUTF(summary.expenses().toString());
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+            bytes += out.size();
+        }
+        Files.move(saving, base, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (int year : emptied) {
+            Files.deleteIfExists(PartitionPath(base.toString(), year));
+        }
+        timer.Stop(records, bytes);
+    }
+}
@@ -0,0 +1,199 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes changes of a collection to its journal on a background thread, so the user interface does not wait for the
+ * disk.
+ * <p>
+ * Changes are queued and written in batches: all changes queued since the last write are appended to the journal at
+ * once and synced with a single fsync. Compactions are queued the same way, behind the changes made before them, and
+ * only the last one of a batch is carried out. Errors of the background thread are kept until 'TakeFailure' is called.
+ */
+public class PersistenceWorker implements Closeable {
+    /**
+     * When queued changes get written to the disk
+     */
+    public enum Durability {
+        /**
+         * As soon as possible after every change
+         */
+        EVERY_CHANGE,
+        /**
+         * Periodically, after a given interval
+         */
+        INTERVAL,
+        /**
+         * Only when the worker is closed
+         */
+        ON_EXIT
+    }
+
+    private record Change(boolean added, Record record) {
+    }
+
+    private final Journal journal;
+    private final Durability durability;
+
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private volatile boolean compactionQueued = false;
+    private volatile IOException failure;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "persistence-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Opens the journal of a given file and starts the worker. A worker whose journal cannot be opened is not created
+     * at all, the caller has to stop or go on without saving changes.
+     *
+     * @param filename       The name of the base file
+     * @param durability     When queued changes get written
+     * @param intervalMillis The interval between writes for 'Durability.INTERVAL' (in milliseconds)
+     * @throws IOException
+     */
+    public PersistenceWorker(String filename, Durability durability, long intervalMillis) throws IOException {
+        // Checked before the journal gets opened, a worker that fails to start leaves nothing open
+        if (durability == Durability.INTERVAL && intervalMillis < 1)
+            throw new IllegalArgumentException("Interval has to be positive");
+
+        this.journal = new Journal(filename);
+        this.durability = durability;
+
+        if (durability == Durability.INTERVAL)
+            executor.scheduleWithFixedDelay(this::WriteQueued, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Queues a record that was added
+     *
+     * @param r The added record
+     */
+    public void LogAdd(Record r) {
+        Enqueue(new Change(true, r), durability == Durability.EVERY_CHANGE);
+    }
+
+    /**
+     * Queues a record that was removed
+     *
+     * @param r The removed record
+     */
+    public void LogRemove(Record r) {
+        Enqueue(new Change(false, r), durability == Durability.EVERY_CHANGE);
+    }
+
+    /**
+     * Queues rewriting the base file once the journal grows past the 'Journal.compactionThreshold'
+     *
+     * @param records The collection whose records the saved file should contain
+     */
+    public void CompactIfNeeded(ListOfRecords records) {
+        if (!compactionQueued && journal.getSize() >= Journal.compactionThreshold)
+            Compact(records);
+    }
+
+    /**
+     * Queues rewriting the saved file. Only the references to the records get copied on the calling thread.
+     *
+     * @param records The collection whose records the saved file should contain
+     */
+    public void Compact(ListOfRecords records) {
+        compactionQueued = true;
+        Enqueue(records.TakeSnapshot(), durability != Durability.ON_EXIT);
+    }
+
+    /**
+     * Returns the error of the last failed write and forgets it
+     *
+     * @return The error or null if no write failed
+     */
+    public IOException TakeFailure() {
+        IOException taken = failure;
+        failure = null;
+        return taken;
+    }
+
+    private void Enqueue(Object item, boolean writeNow) {
+        synchronized (queue) {
+            queue.add(item);
+        }
+        if (writeNow && !writeScheduled.getAndSet(true))
+            executor.execute(this::WriteQueued);
+    }
+
+    // Runs on the worker thread only
+    private void WriteQueued() {
+        writeScheduled.set(false);
+
+        List<Object> batch;
+        synchronized (queue) {
+            if (queue.isEmpty())
+                return;
+            batch = new ArrayList<>(queue);
+            queue.clear();
+        }
+
+        int lastSnapshot = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) instanceof PartitionedFile.Snapshot)
+                lastSnapshot = i;
+        }
+
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Object item = batch.get(i);
+                if (item instanceof Change change) {
+                    if (change.added())
+                        journal.LogAdd(change.record());
+                    else
+                        journal.LogRemove(change.record());
+                } else if (i == lastSnapshot) {
+                    journal.Compact((PartitionedFile.Snapshot) item);
+                }
+            }
+            journal.Sync();
+        } catch (IOException exception) {
+            failure = exception;
+        } finally {
+            if (lastSnapshot >= 0)
+                compactionQueued = false;
+        }
+    }
+
+    /**
+     * Writes all queued changes, waits for the worker to finish and closes the journal
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        executor.execute(this::WriteQueued);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        journal.close();
+
+        IOException taken = TakeFailure();
+        if (taken != null)
+            throw taken;
+    }
+}
@@ -8,23 +8,42 @@ import java.time.format.DateTimeFormatter;
 public class PrintFormats {
     public static final String headerFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %10s%30s%23s " + ConsoleColors.RESET + System.lineSeparator();
     public static final String headerWithIdFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %4s%10s%30s%23s " + ConsoleColors.RESET + System.lineSeparator();
+    public static final String headerWithBalanceFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %10s%30s%23s%19s " + ConsoleColors.RESET + System.lineSeparator();
+    public static final String headerWithIdAndBalanceFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %4s%10s%30s%23s%19s " + ConsoleColors.RESET + System.lineSeparator();
 
     public static final String currency = "Kč";
     public static final String recordFormatPositive = " %10s%30s" + ConsoleColors.GREEN_BOLD + "%20s " + currency + " " + ConsoleColors.RESET + System.lineSeparator();
     public static final String recordFormatNegative = " %10s%30s" + ConsoleColors.RED_BOLD + "%20s " + currency + " " + ConsoleColors.RESET + System.lineSeparator();
+    public static final String recordWithBalanceFormatPositive = " %10s%30s" + ConsoleColors.GREEN_BOLD + "%20s " + currency + " " + ConsoleColors.RESET + "%15s " + currency + " " + System.lineSeparator();
+    public static final String recordWithBalanceFormatNegative = " %10s%30s" + ConsoleColors.RED_BOLD + "%20s " + currency + " " + ConsoleColors.RESET + "%15s " + currency + " " + System.lineSeparator();
 
     public static final String totalFormatPositive = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + "%s" + ConsoleColors.RESET + ConsoleColors.GREEN_BOLD + " %.2f" + ConsoleColors.RESET + System.lineSeparator();
     public static final String totalFormatNegative = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + "%s" + ConsoleColors.RESET + ConsoleColors.RED_BOLD + " %.2f" + ConsoleColors.RESET + System.lineSeparator();
 
     public static final DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("d.M.yyyy");
+    public static final DateTimeFormatter monthFormat = DateTimeFormatter.ofPattern("M.yyyy");
+
+    public static final String reportHeaderFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %8s%30s%7s%15s%12s%12s " + ConsoleColors.RESET + System.lineSeparator();
+    public static final String reportRowFormat = " %8s%30s%7d%15.2f%12.2f%12.2f " + System.lineSeparator();
+    public static final String reportTotalFormat = ConsoleColors.WHITE_BOLD + " %8s%30s%7d%15.2f" + " ".repeat(25) + ConsoleColors.RESET + System.lineSeparator();
+
+    public static final String metricsHeaderFormat = ConsoleColors.WHITE_BACKGROUND + ConsoleColors.BLACK_BOLD + " %-19s%7s%12s%12s%10s%10s%10s%10s%11s%12s " + ConsoleColors.RESET + System.lineSeparator();
+    public static final String metricsRowFormat = " %-19s%7d%12.2f%12.3f%10.3f%10.3f%10.3f%10.3f%11d%12d " + System.lineSeparator();
 
 
     public static final int horizontalLineLength = 65;
     public static final int horizontalLineWithIdsLength = 69;
+    public static final int balanceColumnLength = 19;
+
+    public static final String horizontalLine = "-".repeat(horizontalLineLength) + System.lineSeparator();
+    public static final String horizontalLineWithIds = "-".repeat(horizontalLineWithIdsLength) + System.lineSeparator();
+    public static final String horizontalLineWithBalance = "-".repeat(horizontalLineLength + balanceColumnLength) + System.lineSeparator();
+    public static final String horizontalLineWithIdsAndBalance = "-".repeat(horizontalLineWithIdsLength + balanceColumnLength) + System.lineSeparator();
+
+    public static final int reportLineLength = 86;
+    public static final String reportHorizontalLine = "-".repeat(reportLineLength) + System.lineSeparator();
 
     public static void PrintHorizontalLine(int length) {
-        for (int i = 0; i < length; i++)
-            System.out.print("-");
-        System.out.println();
+        System.out.println("-".repeat(length));
     }
 }
@@ -0,0 +1,73 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns compact integer ids to reasons, so that every distinct reason is kept in memory only once and records can
+ * be grouped by comparing ids. Ids are never reused and stay valid for the whole run of the program.
+ */
+public class ReasonDictionary {
+    private static final ReasonDictionary shared = new ReasonDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] reasons = new String[64];
+    private int size = 0;
+
+    /**
+     * @return The dictionary used by all records
+     */
+    public static ReasonDictionary getShared() {
+        return shared;
+    }
+
+    /**
+     * Returns the id of a reason, adding the reason to the dictionary if it is not there yet
+     *
+     * @param reason The reason
+     * @return Its id
+     */
+    public int IdOf(String reason) {
+        Integer id = ids.get(reason);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            id = ids.get(reason);
+            if (id != null)
+                return id;
+
+            String[] current = reasons;
+            if (size == current.length)
+                current = Arrays.copyOf(current, size * 2);
+            current[size] = reason;
+            reasons = current;
+            ids.put(reason, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the reason with a given id
+     *
+     * @param id An id returned by 'IdOf'
+     * @return The reason
+     */
+    public String ReasonOf(int id) {
+        String[] current = reasons;
+        if (id < current.length && current[id] != null)
+            return current[id];
+
+        // The id was just added by another thread and its reason is not visible yet
+        synchronized (this) {
+            return reasons[id];
+        }
+    }
+
+    /**
+     * @return Number of reasons in the dictionary, which is also the smallest id not given out yet
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
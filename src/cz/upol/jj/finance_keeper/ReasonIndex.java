@@ -0,0 +1,144 @@
+package cz.upol.jj.finance_keeper;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Records of a ListOfRecords by their reasons, searchable by a part of the reason regardless of case and diacritics.
+ * <p>
+ * Every distinct reason is normalized (lower case, no diacritics) once and its trigrams (three consecutive characters)
+ * point back to its id. A search intersects the reason ids of the trigrams of the searched text, checks the few
+ * remaining reasons for the whole text and returns the records of the matching ones, so it does not go through the
+ * records nor the reasons that cannot match.
+ */
+class ReasonIndex implements RecordIndex {
+    private static final int gramLength = 3;
+
+    // Normalized reasons by reason id, null for reasons not seen yet
+    private String[] normalized = new String[64];
+    private final HashMap<Long, BitSet> reasonsByTrigram = new HashMap<>();
+    private final BitSet indexedReasons = new BitSet();
+
+    private final HashMap<Integer, Set<Record>> recordsByReason = new HashMap<>();
+
+    @Override
+    public void added(Record r) {
+        IndexReason(r.getReasonId());
+        recordsByReason.computeIfAbsent(r.getReasonId(), reasonId -> new LinkedHashSet<>()).add(r);
+    }
+
+    @Override
+    public void removed(Record r) {
+        Set<Record> records = recordsByReason.get(r.getReasonId());
+        if (records == null)
+            return;
+
+        records.remove(r);
+        if (records.isEmpty())
+            recordsByReason.remove(r.getReasonId());
+    }
+
+    @Override
+    public void cleared() {
+        // Reasons stay indexed, they are shared by all collections anyway
+        recordsByReason.clear();
+    }
+
+    private void IndexReason(int reasonId) {
+        if (indexedReasons.get(reasonId))
+            return;
+
+        if (reasonId >= normalized.length)
+            normalized = Arrays.copyOf(normalized, Math.max(reasonId + 1, normalized.length * 2));
+        String text = Normalize(ReasonDictionary.getShared().ReasonOf(reasonId));
+        normalized[reasonId] = text;
+
+        for (int i = 0; i + gramLength <= text.length(); i++) {
+            reasonsByTrigram.computeIfAbsent(Trigram(text, i), trigram -> new BitSet()).set(reasonId);
+        }
+        indexedReasons.set(reasonId);
+    }
+
+    /**
+     * Finds the reasons containing a given text
+     *
+     * @param text The searched text, already normalized
+     * @return Ids of the matching reasons that have been seen by the index
+     */
+    public BitSet FindReasons(String text) {
+        BitSet candidates;
+        if (text.length() < gramLength) {
+            // Too short to have a trigram, all reasons have to be checked
+            candidates = (BitSet) indexedReasons.clone();
+        } else {
+            candidates = null;
+            for (int i = 0; i + gramLength <= text.length(); i++) {
+                BitSet reasons = reasonsByTrigram.get(Trigram(text, i));
+                if (reasons == null)
+                    return new BitSet();
+
+                if (candidates == null)
+                    candidates = (BitSet) reasons.clone();
+                else
+                    candidates.and(reasons);
+            }
+        }
+
+        // Sharing all the trigrams does not mean they are in the right order
+        for (int reasonId = candidates.nextSetBit(0); reasonId >= 0; reasonId = candidates.nextSetBit(reasonId + 1)) {
+            if (!normalized[reasonId].contains(text))
+                candidates.clear(reasonId);
+        }
+        return candidates;
+    }
+
+    /**
+     * Finds the records whose reason contains a given text
+     *
+     * @param text The searched text, already normalized
+     * @return The matching records, grouped by reason
+     */
+    public List<Record> Find(String text) {
+        List<Record> found = new ArrayList<>();
+        BitSet reasons = FindReasons(text);
+        for (int reasonId = reasons.nextSetBit(0); reasonId >= 0; reasonId = reasons.nextSetBit(reasonId + 1)) {
+            found.addAll(recordsByReason.getOrDefault(reasonId, Set.of()));
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether a reason contains a given text
+     *
+     * @param reasonId The id of the reason
+     * @param text     The searched text, already normalized
+     * @return Whether it does
+     */
+    public boolean Matches(int reasonId, String text) {
+        String reason = reasonId < normalized.length ? normalized[reasonId] : null;
+        if (reason == null)
+            reason = Normalize(ReasonDictionary.getShared().ReasonOf(reasonId));
+        return reason.contains(text);
+    }
+
+    /**
+     * Converts a text to lower case and strips its diacritics
+     *
+     * @param text The text
+     * @return The normalized text
+     */
+    static String Normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK)
+                stripped.append(Character.toLowerCase(c));
+        }
+        return stripped.toString();
+    }
+
+    private static long Trigram(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+}
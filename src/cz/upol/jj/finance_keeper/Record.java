@@ -2,39 +2,51 @@ package cz.upol.jj.finance_keeper;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Formatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class for storing information about income/spending
+ * <p>
+ * A record never changes once it is created, since indexes of a ListOfRecords are keyed by its values. A record gets
+ * edited by removing it and adding a new one.
  */
 public class Record {
-    private LocalDate date;
-    private String reason;
-    private BigDecimal amount;
+    // The highest id given to any record so far, loaded records move it up
+    private static final AtomicLong lastId = new AtomicLong();
 
-    public LocalDate getDate() {
-        return date;
+    private final long id;
+    private final LocalDate date;
+    // Id of the reason in the shared ReasonDictionary
+    private final int reasonId;
+    private final BigDecimal amount;
+
+    /**
+     * @return The unique id of the record, it is saved with the record and never changes
+     */
+    public long getId() {
+        return id;
     }
 
-    public void setDate(LocalDate date) {
-        this.date = date;
+    public LocalDate getDate() {
+        return date;
     }
 
     public String getReason() {
-        return reason;
+        return ReasonDictionary.getShared().ReasonOf(reasonId);
     }
 
-    public void setReason(String reason) {
-        this.reason = reason;
+    /**
+     * @return Id of the reason in the shared ReasonDictionary, equal ids mean equal reasons
+     */
+    public int getReasonId() {
+        return reasonId;
     }
 
     public BigDecimal getAmount() {
         return amount;
     }
 
-    public void setAmount(BigDecimal amount) {
-        this.amount = amount;
-    }
-
     /**
      * Initializes a Record object
      * @param date Date of the record
@@ -43,22 +55,104 @@ public class Record {
      * @throws NumberFormatException
      */
     public Record(LocalDate date, String reason, BigDecimal amount) throws NumberFormatException {
+        this(date, ReasonDictionary.getShared().IdOf(reason), amount);
+    }
+
+    /**
+     * Initializes a Record object with an already known reason
+     * @param date Date of the record
+     * @param reasonId Id of the reason in the shared ReasonDictionary
+     * @param amount The monetary amount
+     */
+    Record(LocalDate date, int reasonId, BigDecimal amount) {
+        this(lastId.incrementAndGet(), date, reasonId, amount);
+    }
+
+    /**
+     * Initializes a Record object that already has an id (loaded from a file)
+     * @param id The unique id of the record
+     * @param date Date of the record
+     * @param reasonId Id of the reason in the shared ReasonDictionary
+     * @param amount The monetary amount
+     */
+    Record(long id, LocalDate date, int reasonId, BigDecimal amount) {
+        this.id = id;
         this.date = date;
-        this.reason = reason;
+        this.reasonId = reasonId;
         this.amount = amount;
+
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Makes sure that new records get ids above a given one, for records saved in a file but not read yet
+     *
+     * @param id The highest id of the saved records
+     */
+    static void ReserveIds(long id) {
+        lastId.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * @param other Another record
+     * @return Whether both records have the same date, reason and amount, regardless of their ids
+     */
+    boolean HasSameValues(Record other) {
+        return date.equals(other.date) && reasonId == other.reasonId && amount.equals(other.amount);
+    }
+
+    /**
+     * Records are equal when they have the same id
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Record other && other.id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 
     /**
      * Prints the record either green or red depending on the amount
      */
     public void print(){
+        StringBuilder builder = new StringBuilder();
+        format(new Formatter(builder));
+        System.out.print(builder);
+    }
+
+    /**
+     * Formats the record the same way as 'print' does into a given formatter
+     *
+     * @param formatter The formatter to write to
+     */
+    void format(Formatter formatter) {
         String format = "";
 
-        if(amount.compareTo(new BigDecimal(0)) > 0)
+        if(amount.signum() > 0)
             format = PrintFormats.recordFormatPositive;
         else
             format = PrintFormats.recordFormatNegative;
 
-        System.out.printf(format, date.format(PrintFormats.dateFormat), reason, amount.toString());
+        formatter.format(format, TextCodec.FormatDate(date), getReason(), amount.toString());
+    }
+
+    /**
+     * Formats the record like 'format' does with an added column of the balance after it
+     *
+     * @param formatter The formatter to write to
+     * @param balance   The running balance after the record
+     */
+    void format(Formatter formatter, BigDecimal balance) {
+        String format;
+
+        if(amount.signum() > 0)
+            format = PrintFormats.recordWithBalanceFormatPositive;
+        else
+            format = PrintFormats.recordWithBalanceFormatNegative;
+
+        formatter.format(format, TextCodec.FormatDate(date), getReason(), amount.toString(), balance.toString());
     }
 }
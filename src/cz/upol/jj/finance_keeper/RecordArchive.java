@@ -0,0 +1,196 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact archive of records for keeping old years outside of the saved file, written and read as a stream.
+ * <p>
+ * The archive is a GZIP stream (which checks its content by a CRC) of: magic number (int), version (int), record count
+ * (long), epoch day of the first record (long) and then the records ordered by date, each as:
+ * <ul>
+ *     <li>days since the previous record shifted left by one, the lowest bit set when the scale of the amount differs
+ *     from that of the previous record (varint), followed by the new scale (byte) in that case</li>
+ *     <li>unscaled amount, that is cents for amounts with two decimal places (zigzag varint)</li>
+ *     <li>position of the reason in the dictionary of the archive (varint), a position equal to the size of the
+ *     dictionary adds a new reason to it given by its length (varint) and UTF-8 bytes</li>
+ * </ul>
+ * Record ids are not kept, imported records get new ones.
+ */
+public class RecordArchive {
+    static final int magic = 0x464B4152; // "FKAR"
+    static final int version = 1;
+
+    private static final int bufferSize = 1 << 16;
+
+    /**
+     * Writes records to an archive ordered by date, replacing it if it exists. The archive is written next to the
+     * target first and moved over it once complete, so a failure leaves any previous archive as it was.
+     *
+     * @param path    The archive to write
+     * @param records The records to archive
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    public static long Export(Path path, Collection<Record> records) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.EXPORT);
+        // A stable sort keeps records of the same day in their order
+        List<Record> ordered = new ArrayList<>(records);
+        ordered.sort(Comparator.comparing(Record::getDate));
+
+        Path saving = Path.of(path + ".saving");
+        try (FileOutputStream fileOut = new FileOutputStream(saving.toFile());
+             GZIPOutputStream gzipOut = new GZIPOutputStream(fileOut, bufferSize) {
+                 {
+                     def.setLevel(Deflater.BEST_COMPRESSION);
+                 }
+             };
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzipOut, bufferSize))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(ordered.size());
+            out.writeLong(ordered.isEmpty() ? 0 : ordered.get(0).getDate().toEpochDay());
+
+            Map<Integer, Integer> positions = new HashMap<>();
+            long previousDay = ordered.isEmpty() ? 0 : ordered.get(0).getDate().toEpochDay();
+            int previousScale = 2;
+            for (Record r : ordered) {
+                long day = r.getDate().toEpochDay();
+                BigDecimal amount = r.getAmount();
+                if (amount.scale() != (byte) amount.scale())
+                    throw new IOException("Amount with too many decimal places for the archive: " + amount);
+
+                boolean scaleChanged = amount.scale() != previousScale;
+                WriteVarLong(out, (day - previousDay) << 1 | (scaleChanged ? 1 : 0));
+                if (scaleChanged)
+                    out.writeByte(amount.scale());
+                WriteVarLong(out, ZigZag(amount.unscaledValue().longValueExact()));
+
+                Integer position = positions.get(r.getReasonId());
+                if (position != null) {
+                    WriteVarLong(out, position);
+                } else {
+                    WriteVarLong(out, positions.size());
+                    positions.put(r.getReasonId(), positions.size());
+                    byte[] bytes = r.getReason().getBytes(StandardCharsets.UTF_8);
+                    WriteVarLong(out, bytes.length);
+                    out.write(bytes);
+                }
+
+                previousDay = day;
+                previousScale = amount.scale();
+            }
+
+            // The trailer of the GZIP stream has to be on the disk before the archive replaces the previous one
+            out.flush();
+            gzipOut.finish();
+            fileOut.getFD().sync();
+        } catch (ArithmeticException exception) {
+            Files.deleteIfExists(saving);
+            throw new IOException("Amount too large for the archive", exception);
+        } catch (IOException exception) {
+            Files.deleteIfExists(saving);
+            throw exception;
+        }
+        Files.move(saving, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long bytes = Files.size(path);
+        timer.Stop(records.size(), bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an archive record by record, only the dictionary of reasons is kept in memory
+     *
+     * @param path   The archive to read
+     * @param action Called with every record, in the order of dates
+     * @return Number of records read
+     * @throws IOException When the archive cannot be read or is damaged
+     */
+    public static long Import(Path path, Consumer<Record> action) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.IMPORT);
+        long count;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                new FileInputStream(path.toFile()), bufferSize), bufferSize))) {
+            if (in.readInt() != magic)
+                throw new IOException("Not a record archive: " + path);
+            int archiveVersion = in.readInt();
+            if (archiveVersion != version)
+                throw new IOException("Unsupported archive version " + archiveVersion + ": " + path);
+
+            count = in.readLong();
+            long day = in.readLong();
+            int scale = 2;
+            // Ids of the shared dictionary by position in the archive
+            List<Integer> reasonIds = new ArrayList<>();
+            ReasonDictionary dictionary = ReasonDictionary.getShared();
+
+            for (long i = 0; i < count; i++) {
+                long dayWord = ReadVarLong(in);
+                day += dayWord >>> 1;
+                if ((dayWord & 1) != 0)
+                    scale = in.readByte();
+                BigDecimal amount = BigDecimal.valueOf(UnZigZag(ReadVarLong(in)), scale);
+
+                long position = ReadVarLong(in);
+                if (position == reasonIds.size()) {
+                    byte[] bytes = new byte[Math.toIntExact(ReadVarLong(in))];
+                    in.readFully(bytes);
+                    reasonIds.add(dictionary.IdOf(new String(bytes, StandardCharsets.UTF_8)));
+                } else if (position < 0 || position > reasonIds.size()) {
+                    throw new IOException("Corrupted archive: " + path);
+                }
+
+                action.accept(new Record(LocalDate.ofEpochDay(day), reasonIds.get((int) position), amount));
+            }
+
+            // Reading past the end makes the GZIP stream check its CRC
+            if (in.read() != -1)
+                throw new IOException("Corrupted archive: " + path);
+        } catch (ArithmeticException | DateTimeException exception) {
+            throw new IOException("Corrupted archive: " + path, exception);
+        }
+
+        timer.Stop(count, Files.size(path));
+        return count;
+    }
+
+    private static void WriteVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long ReadVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long ZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long UnZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,404 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * The binary save format, read through a memory mapped buffer.
+ * <p>
+ * Layout (big endian):
+ * <ul>
+ *     <li>header - magic number (int), schema version (int), record count (int), block count (int), block index
+ *     offset (long)</li>
+ *     <li>blocks - of at most 'blockLength' records each, every one decodable on its own: record count (int), string
+ *     count (int), the rows and the string table of the block</li>
+ *     <li>block index - one entry per block, each 'indexEntryLength' bytes: offset (long), length (int), record count
+ *     (int), CRC32C checksum of the block (int)</li>
+ * </ul>
+ * A row takes 'rowLength' bytes: record id (long), epoch day (int), unscaled amount (long), amount scale (byte), reason
+ * id (int). The string table holds the distinct reasons of the block, each as a length (int) followed by UTF-8 bytes.
+ * Reason ids in a block are local to it, they get translated from/to the ids of the shared ReasonDictionary once per
+ * distinct reason. Blocks are encoded and decoded in parallel on the common fork-join pool.
+ * <p>
+ * Files of schema versions 1 and 2 are still read: they have a single string table after the rows in place of the
+ * blocks and the index, the header holds its string count and offset. Version 1 has no record ids in its rows, its
+ * records get new ids when read.
+ */
+class RecordFile {
+    static final int magic = 0x464B5052; // "FKPR"
+    static final int schemaVersion = 3;
+
+    static final int headerLength = 24;
+    static final int rowLength = 25;
+    private static final int rowLengthWithoutId = 17;
+    // Records in a block, the last block of a file may have fewer
+    static final int blockLength = 4096;
+    private static final int blockHeaderLength = 8;
+    private static final int indexEntryLength = 20;
+    // Rows read at once by 'Scan' from files without blocks
+    private static final int scanChunkRows = 4096;
+
+    /**
+     * Checks whether a file starts with the magic number of this format
+     *
+     * @param path The file to check
+     * @return False for files in the old format (a sequence of writeUTF strings)
+     * @throws IOException
+     */
+    static boolean IsRecordFile(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path.toFile()))) {
+            return in.readInt() == magic;
+        } catch (EOFException eofException) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes given records to a file and forces it to the disk, the blocks get encoded in parallel
+     *
+     * @param records The records to write
+     * @param path    The file to write to
+     * @return Number of bytes written
+     * @throws IOException
+     */
+    static long Write(List<Record> records, Path path) throws IOException {
+        int blockCount = (records.size() + blockLength - 1) / blockLength;
+        ByteBuffer[] blocks = new ByteBuffer[blockCount];
+        int[] checksums = new int[blockCount];
+        try {
+            Blocks(blockCount).forEach(i -> {
+                blocks[i] = EncodeBlock(records.subList(i * blockLength,
+                        Math.min(records.size(), (i + 1) * blockLength)));
+                checksums[i] = Checksum(blocks[i]);
+            });
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(blockCount * indexEntryLength);
+        long offset = headerLength;
+        for (int i = 0; i < blockCount; i++) {
+            index.putLong(offset)
+                    .putInt(blocks[i].limit())
+                    .putInt(Math.min(blockLength, records.size() - i * blockLength))
+                    .putInt(checksums[i]);
+            offset += blocks[i].limit();
+        }
+        index.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(headerLength)
+                .putInt(magic)
+                .putInt(schemaVersion)
+                .putInt(records.size())
+                .putInt(blockCount)
+                .putLong(offset)
+                .flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            WriteFully(channel, header);
+            for (ByteBuffer block : blocks) {
+                WriteFully(channel, block);
+            }
+            WriteFully(channel, index);
+            channel.force(true);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Reads all records from a file, the blocks get decoded in parallel
+     *
+     * @param path    The file to read
+     * @param records The collection to add the records to
+     * @return Number of bytes read
+     * @throws IOException
+     */
+    static long Read(Path path, List<Record> records) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int version = CheckHeader(buffer, path);
+        if (version < 3) {
+            ReadWithoutBlocks(buffer, version, records, path);
+            return buffer.limit();
+        }
+
+        CheckIndex(buffer, buffer.limit(), path);
+        int blockCount = buffer.getInt(12);
+        ByteBuffer index = buffer.slice((int) buffer.getLong(16), blockCount * indexEntryLength);
+        List<List<Record>> decoded;
+        try {
+            // Every block is read through a slice of its own, so the tasks share no buffer position
+            decoded = Blocks(blockCount).mapToObj(i -> DecodeBlock(
+                    buffer.slice((int) index.getLong(i * indexEntryLength), index.getInt(i * indexEntryLength + 8)),
+                    index, i, path)).toList();
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        } catch (IndexOutOfBoundsException exception) {
+            throw new IOException("Corrupted block index: " + path, exception);
+        }
+
+        List<Record> loaded = new ArrayList<>(buffer.getInt(8));
+        for (List<Record> block : decoded) {
+            loaded.addAll(block);
+        }
+        records.addAll(loaded);
+        return buffer.limit();
+    }
+
+    /**
+     * Reads a file record by record without keeping its records, only a block (or a chunk of rows of files without
+     * blocks) is in memory at a time
+     *
+     * @param path   The file to read
+     * @param action Called with every record in the order of the file
+     * @return Number of bytes read
+     * @throws IOException
+     */
+    static long Scan(Path path, Consumer<Record> action) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ReadFully(channel, 0, headerLength);
+            int version = CheckHeader(header, path);
+            if (version < 3) {
+                ScanWithoutBlocks(channel, header, version, action, path);
+                return channel.size();
+            }
+
+            CheckIndex(header, channel.size(), path);
+            int blockCount = header.getInt(12);
+            ByteBuffer index = ReadFully(channel, header.getLong(16), blockCount * indexEntryLength);
+            for (int i = 0; i < blockCount; i++) {
+                ByteBuffer block = ReadFully(channel, index.getLong(i * indexEntryLength),
+                        index.getInt(i * indexEntryLength + 8));
+                try {
+                    DecodeBlock(block, index, i, path).forEach(action);
+                } catch (UncheckedIOException exception) {
+                    throw exception.getCause();
+                }
+            }
+            return channel.size();
+        }
+    }
+
+    // Small files are not worth the overhead of parallel tasks
+    private static IntStream Blocks(int blockCount) {
+        IntStream blocks = IntStream.range(0, blockCount);
+        return blockCount > 1 ? blocks.parallel() : blocks;
+    }
+
+    private static ByteBuffer EncodeBlock(List<Record> records) {
+        ReasonDictionary dictionary = ReasonDictionary.getShared();
+
+        // Translates ids of the shared dictionary to ids in the block, in the order of first use
+        Map<Integer, Integer> blockReasonIds = new HashMap<>();
+        List<byte[]> reasons = new ArrayList<>();
+        int stringTableLength = 0;
+        for (Record r : records) {
+            if (!blockReasonIds.containsKey(r.getReasonId())) {
+                blockReasonIds.put(r.getReasonId(), reasons.size());
+                byte[] bytes = dictionary.ReasonOf(r.getReasonId()).getBytes(StandardCharsets.UTF_8);
+                reasons.add(bytes);
+                stringTableLength += 4 + bytes.length;
+            }
+        }
+
+        ByteBuffer block = ByteBuffer.allocate(blockHeaderLength + records.size() * rowLength + stringTableLength);
+        block.putInt(records.size()).putInt(reasons.size());
+        try {
+            for (Record r : records) {
+                BigDecimal amount = r.getAmount();
+                if (amount.scale() != (byte) amount.scale())
+                    throw new IOException("Amount with too many decimal places for the save format: " + amount);
+
+                block.putLong(r.getId())
+                        .putInt((int) r.getDate().toEpochDay())
+                        .putLong(amount.unscaledValue().longValueExact())
+                        .put((byte) amount.scale())
+                        .putInt(blockReasonIds.get(r.getReasonId()));
+            }
+        } catch (ArithmeticException exception) {
+            throw new UncheckedIOException(new IOException("Amount too large for the save format", exception));
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+
+        for (byte[] bytes : reasons) {
+            block.putInt(bytes.length).put(bytes);
+        }
+        return block.flip();
+    }
+
+    // Checks the block against its entry of the index before decoding it
+    private static List<Record> DecodeBlock(ByteBuffer block, ByteBuffer index, int i, Path path) {
+        int recordCount = index.getInt(i * indexEntryLength + 12);
+        if (Checksum(block) != index.getInt(i * indexEntryLength + 16) || block.getInt(0) != recordCount)
+            throw new UncheckedIOException(new IOException("Corrupted block " + i + ": " + path));
+
+        try {
+            int stringCount = block.getInt(4);
+            int[] reasonIds = ReasonIds(ReadStrings(block, blockHeaderLength + recordCount * rowLength, stringCount));
+
+            List<Record> decoded = new ArrayList<>(recordCount);
+            for (int j = 0, position = blockHeaderLength; j < recordCount; j++, position += rowLength) {
+                LocalDate date = LocalDate.ofEpochDay(block.getInt(position + 8));
+                BigDecimal amount = BigDecimal.valueOf(block.getLong(position + 12), block.get(position + 20));
+                decoded.add(new Record(block.getLong(position), date, reasonIds[block.getInt(position + 21)], amount));
+            }
+            return decoded;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException | DateTimeException exception) {
+            throw new UncheckedIOException(new IOException("Corrupted block " + i + ": " + path, exception));
+        }
+    }
+
+    private static int Checksum(ByteBuffer block) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(block.duplicate());
+        return (int) checksum.getValue();
+    }
+
+    // Returns the schema version
+    private static int CheckHeader(ByteBuffer header, Path path) throws IOException {
+        if (header.limit() < headerLength || header.getInt(0) != magic)
+            throw new IOException("Not a record file: " + path);
+        int version = header.getInt(4);
+        if (version < 1 || version > schemaVersion)
+            throw new IOException("Unsupported schema version " + version + ": " + path);
+        return version;
+    }
+
+    // The block index has to end the file
+    private static void CheckIndex(ByteBuffer header, long fileLength, Path path) throws IOException {
+        int blockCount = header.getInt(12);
+        long indexOffset = header.getLong(16);
+        if (blockCount < 0 || indexOffset < headerLength
+                || indexOffset + (long) blockCount * indexEntryLength != fileLength)
+            throw new IOException("Corrupted block index: " + path);
+    }
+
+    // Counts and offsets in the header are not checked against the file, a damaged file fails while it is read
+    private static void ReadWithoutBlocks(ByteBuffer buffer, int version, List<Record> records, Path path)
+            throws IOException {
+        try {
+            int recordCount = buffer.getInt(8);
+            int stringCount = buffer.getInt(12);
+            long stringTableOffset = buffer.getLong(16);
+
+            int[] reasonIds = ReasonIds(ReadStrings(buffer, Math.toIntExact(stringTableOffset), stringCount));
+
+            boolean hasIds = version >= 2;
+            int length = hasIds ? rowLength : rowLengthWithoutId;
+
+            List<Record> loaded = new ArrayList<>(recordCount);
+            for (int i = 0, position = headerLength; i < recordCount; i++, position += length) {
+                loaded.add(ReadRow(buffer, position, hasIds, reasonIds));
+            }
+            records.addAll(loaded);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException | ArithmeticException | DateTimeException exception) {
+            throw new IOException("Damaged record file: " + path, exception);
+        }
+    }
+
+    private static void ScanWithoutBlocks(FileChannel channel, ByteBuffer header, int version,
+                                          Consumer<Record> action, Path path) throws IOException {
+        try {
+            int recordCount = header.getInt(8);
+            int stringCount = header.getInt(12);
+            long stringTableOffset = header.getLong(16);
+
+            ByteBuffer table = ReadFully(channel, stringTableOffset,
+                    Math.toIntExact(channel.size() - stringTableOffset));
+            int[] reasonIds = ReasonIds(ReadStrings(table, 0, stringCount));
+
+            boolean hasIds = version >= 2;
+            int length = hasIds ? rowLength : rowLengthWithoutId;
+            ByteBuffer rows = ByteBuffer.allocate(length * scanChunkRows);
+
+            long position = headerLength;
+            for (int read = 0; read < recordCount; ) {
+                int chunk = Math.min(scanChunkRows, recordCount - read);
+                rows.clear().limit(chunk * length);
+                ReadFully(channel, position, rows);
+                position += (long) chunk * length;
+
+                for (int row = 0; row < chunk; row++) {
+                    action.accept(ReadRow(rows, row * length, hasIds, reasonIds));
+                }
+                read += chunk;
+            }
+        } catch (EOFException | IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException | ArithmeticException | DateTimeException exception) {
+            throw new IOException("Damaged record file: " + path, exception);
+        }
+    }
+
+    private static Record ReadRow(ByteBuffer buffer, int position, boolean hasIds, int[] reasonIds) {
+        int fields = hasIds ? position + 8 : position;
+        LocalDate date = LocalDate.ofEpochDay(buffer.getInt(fields));
+        BigDecimal amount = BigDecimal.valueOf(buffer.getLong(fields + 4), buffer.get(fields + 12));
+        int reasonId = reasonIds[buffer.getInt(fields + 13)];
+
+        if (hasIds)
+            return new Record(buffer.getLong(position), date, reasonId, amount);
+        return new Record(date, reasonId, amount);
+    }
+
+    private static int[] ReasonIds(String[] reasons) {
+        int[] reasonIds = new int[reasons.length];
+        for (int i = 0; i < reasons.length; i++) {
+            reasonIds[i] = ReasonDictionary.getShared().IdOf(reasons[i]);
+        }
+        return reasonIds;
+    }
+
+    private static ByteBuffer ReadFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+        ReadFully(channel, position, buffer);
+        return buffer;
+    }
+
+    private static void ReadFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+        buffer.flip();
+    }
+
+    private static void WriteFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String[] ReadStrings(ByteBuffer buffer, int offset, int count) {
+        String[] strings = new String[count];
+        ByteBuffer table = buffer.duplicate().position(offset);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[table.getInt()];
+            table.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+}
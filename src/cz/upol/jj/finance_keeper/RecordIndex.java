@@ -0,0 +1,38 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.Collection;
+
+/**
+ * A structure kept up to date with the contents of a ListOfRecords
+ */
+interface RecordIndex {
+    /**
+     * Called after a record was added to the collection
+     *
+     * @param r The added record
+     */
+    void added(Record r);
+
+    /**
+     * Called after a record was removed from the collection
+     *
+     * @param r The removed record
+     */
+    void removed(Record r);
+
+    /**
+     * Called after all records were removed from the collection
+     */
+    void cleared();
+
+    /**
+     * Called after several records were added to the collection at once
+     *
+     * @param records The added records
+     */
+    default void addedAll(Collection<? extends Record> records) {
+        for (Record r : records) {
+            added(r);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.util.Formatter;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Renders records page by page, formatting a whole page into a reused buffer that is written to the console at once
+ */
+public class RecordRenderer {
+    public static final int defaultPageSize = 20;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private final Formatter formatter = new Formatter(buffer);
+
+    private final int pageSize;
+    private int page = 0;
+    // Running balances of rendered records, null without a balance column
+    private Supplier<Function<Record, BigDecimal>> balances = null;
+    // The balances of the render in progress, they may remember what they have computed until it ends
+    private Function<Record, BigDecimal> renderedBalances = null;
+
+    private Metrics.Timer streamedTimer;
+    private long streamedCount;
+    private long streamedLength;
+
+    /**
+     * Initializes a renderer with the 'defaultPageSize'
+     */
+    public RecordRenderer() {
+        this(defaultPageSize);
+    }
+
+    /**
+     * Initializes a renderer
+     *
+     * @param pageSize Number of records on a page
+     */
+    public RecordRenderer(int pageSize) {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("Page size has to be positive");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Adds a column with the running balance after every record to what gets rendered
+     *
+     * @param balances Returns the balances after records for one render (e.g. 'ListOfRecords.RunningBalances'), null
+     *                 removes the column
+     */
+    public void setBalances(Supplier<Function<Record, BigDecimal>> balances) {
+        this.balances = balances;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    /**
+     * @param recordCount Number of records to be rendered
+     * @return Number of pages the records take, at least one
+     */
+    public int PageCount(int recordCount) {
+        return Math.max(1, (recordCount + pageSize - 1) / pageSize);
+    }
+
+    public void NextPage() {
+        page++;
+    }
+
+    public void PreviousPage() {
+        if (page > 0)
+            page--;
+    }
+
+    public void FirstPage() {
+        page = 0;
+    }
+
+    /**
+     * Renders the current page of given records with a header, moving to the last page if the current one no longer
+     * exists
+     *
+     * @param records     The records to render
+     * @param withIndices Whether to add an 'ID' column (IDs match indices in the list)
+     */
+    public void RenderPage(List<Record> records, boolean withIndices) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.RENDER);
+        int pageCount = PageCount(records.size());
+        if (page >= pageCount)
+            page = pageCount - 1;
+
+        int from = page * pageSize;
+        int to = Math.min(records.size(), from + pageSize);
+
+        buffer.setLength(0);
+        BeginBalances();
+        Format(records, from, to, withIndices);
+        renderedBalances = null;
+        if (pageCount > 1)
+            formatter.format("Strana %d/%d (záznamy %d-%d z %d)%n", page + 1, pageCount, from + 1, to, records.size());
+        Flush();
+        timer.Stop(to - from, buffer.length());
+    }
+
+    /**
+     * Renders all given records with a header
+     *
+     * @param records     The records to render
+     * @param withIndices Whether to add an 'ID' column (IDs match indices in the list)
+     */
+    public void RenderAll(List<Record> records, boolean withIndices) {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.RENDER);
+        buffer.setLength(0);
+        BeginBalances();
+        Format(records, 0, records.size(), withIndices);
+        renderedBalances = null;
+        Flush();
+        timer.Stop(records.size(), buffer.length());
+    }
+
+    /**
+     * Starts rendering records that are not in memory all at once, they are passed to 'RenderStreamed' one by one and
+     * the rendering is finished by 'EndStreamed'
+     */
+    void BeginStreamed() {
+        streamedTimer = Metrics.Start(Metrics.Operation.RENDER);
+        streamedCount = 0;
+        streamedLength = 0;
+        buffer.setLength(0);
+        BeginBalances();
+        FormatHeader(false);
+    }
+
+    /**
+     * Renders the next of the streamed records, the buffer is written out after every page so it does not grow
+     *
+     * @param r The record
+     */
+    void RenderStreamed(Record r) {
+        FormatRecord(r);
+        if (++streamedCount % pageSize == 0) {
+            streamedLength += buffer.length();
+            Flush();
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Finishes rendering of streamed records
+     */
+    void EndStreamed() {
+        buffer.append(balances == null ? PrintFormats.horizontalLine : PrintFormats.horizontalLineWithBalance);
+        streamedLength += buffer.length();
+        Flush();
+        renderedBalances = null;
+        streamedTimer.Stop(streamedCount, streamedLength);
+    }
+
+    private void BeginBalances() {
+        renderedBalances = balances == null ? null : balances.get();
+    }
+
+    private void Format(List<Record> records, int from, int to, boolean withIndices) {
+        String horizontalLine = FormatHeader(withIndices);
+
+        for (int i = from; i < to; i++) {
+            if (withIndices)
+                formatter.format("%4s", i);
+            FormatRecord(records.get(i));
+        }
+
+        buffer.append(horizontalLine);
+    }
+
+    private void FormatRecord(Record r) {
+        if (balances == null)
+            r.format(formatter);
+        else
+            r.format(formatter, renderedBalances.apply(r));
+    }
+
+    // Returns the horizontal line matching the header
+    private String FormatHeader(boolean withIndices) {
+        String horizontalLine;
+        if (withIndices && balances != null) {
+            formatter.format(PrintFormats.headerWithIdAndBalanceFormat, "ID", "Datum", "Důvod", "Částka", "Zůstatek");
+            horizontalLine = PrintFormats.horizontalLineWithIdsAndBalance;
+        } else if (withIndices) {
+            formatter.format(PrintFormats.headerWithIdFormat, "ID", "Datum", "Důvod", "Částka");
+            horizontalLine = PrintFormats.horizontalLineWithIds;
+        } else if (balances != null) {
+            formatter.format(PrintFormats.headerWithBalanceFormat, "Datum", "Důvod", "Částka", "Zůstatek");
+            horizontalLine = PrintFormats.horizontalLineWithBalance;
+        } else {
+            formatter.format(PrintFormats.headerFormat, "Datum", "Důvod", "Částka");
+            horizontalLine = PrintFormats.horizontalLine;
+        }
+
+        buffer.append(horizontalLine);
+        return horizontalLine;
+    }
+
+    private void Flush() {
+        System.out.append(buffer);
+        System.out.flush();
+    }
+}
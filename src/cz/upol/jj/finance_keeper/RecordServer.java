@@ -0,0 +1,335 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * Serves one collection of records to several clients over a local socket, so that more terminals can work with the
+ * same saved file.
+ * <p>
+ * Every connection is served by a thread of its own and has its own filters and order. Requests are single lines,
+ * every response ends with a line starting with 'OK' or 'ERR'. Records are sent as 'id;D.M.RRRR;amount;reason' lines
+ * (the BatchRunner understands the same requests):
+ * <ul>
+ *     <li>ADD D.M.RRRR;amount;reason - adds a record</li>
+ *     <li>REMOVE id - removes a record</li>
+ *     <li>LIST [page] - the records of the view, page by page</li>
+ *     <li>BALANCE - the total amount of the view</li>
+ *     <li>ORDER DATE|AMOUNT ASC|DESC - orders the view</li>
+ *     <li>FILTER DATE from to | FILTER AMOUNT from to | FILTER INCOME | FILTER EXPENSES | FILTER REASON text - adds a
+ *     filter to the view (bounds are inclusive, '-' leaves one out)</li>
+ *     <li>CLEAR - removes all filters</li>
+ *     <li>IMPORT path - imports a CSV file on the server</li>
+ *     <li>REPORT M.RRRR M.RRRR - totals by month and reason as 'M.RRRR;count;total;min;max;reason' lines</li>
+ *     <li>QUIT - closes the connection</li>
+ * </ul>
+ * Reads hold the read lock of a StampedLock, so any number of clients can query at once while changes get the
+ * collection to themselves. The balance of an unfiltered view is read optimistically without locking at all.
+ */
+public class RecordServer implements Closeable {
+    public static final int defaultPort = 7447;
+
+    private final ListOfRecords records = new ListOfRecords();
+    private final PersistenceWorker persistence;
+    private final StampedLock lock = new StampedLock();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "record-server-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed = false;
+
+    /**
+     * What a connection sees of the collection
+     */
+    private static class Session {
+        final RecordView view;
+        Requests.Order order = new Requests.Order(false, true);
+
+        Session(ListOfRecords records) {
+            view = new RecordView(records);
+        }
+    }
+
+    /**
+     * Reads a saved file whole and starts listening on a local port
+     *
+     * @param filename       The name of the saved file
+     * @param port           The port to listen on
+     * @param durability     When changes get written to the disk
+     * @param intervalMillis The interval between writes for 'Durability.INTERVAL' (in milliseconds)
+     * @throws IOException
+     */
+    public RecordServer(String filename, int port, PersistenceWorker.Durability durability, long intervalMillis)
+            throws IOException {
+        try {
+            records.ReadFromFile(filename);
+        } catch (FileNotFoundException | NoSuchFileException exception) {
+            // A new saved file gets created with the first compaction
+        }
+        // Reads must not change the collection, so partitions are not read on demand here
+        records.LoadAll();
+        records.OrderByDate(true);
+
+        persistence = new PersistenceWorker(filename, durability, intervalMillis);
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the server is closed
+     *
+     * @throws IOException
+     */
+    public void Serve() throws IOException {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException exception) {
+                if (closed)
+                    return;
+                throw exception;
+            }
+            connections.execute(() -> Handle(socket));
+        }
+    }
+
+    private void Handle(Socket socket) {
+        Session session = Write(() -> new Session(records));
+
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            String request;
+            while ((request = in.readLine()) != null) {
+                if (request.strip().equalsIgnoreCase("QUIT")) {
+                    out.println("OK");
+                    out.flush();
+                    break;
+                }
+
+                try {
+                    Execute(request.strip(), session, out);
+                } catch (IllegalArgumentException | DateTimeParseException exception) {
+                    out.println("ERR Špatně zadaný požadavek: " + request);
+                } catch (IOException | UncheckedIOException exception) {
+                    out.println("ERR Chyba při práci se souborem.");
+                }
+                out.flush();
+
+                // Changes are written in the background, their errors can only be reported on the server
+                if (persistence.TakeFailure() != null)
+                    System.err.println("Chyba při zápisu do souboru.");
+            }
+        } catch (IOException exception) {
+            // The client went away
+        } finally {
+            Write(() -> {
+                session.view.Detach();
+                return null;
+            });
+        }
+    }
+
+    private void Execute(String request, Session session, PrintWriter out) throws IOException {
+        String[] parts = Requests.Split(request);
+        String argument = parts[1];
+
+        switch (parts[0]) {
+            case "ADD" -> Add(argument, out);
+            case "REMOVE" -> Remove(Long.parseLong(argument), out);
+            case "LIST" -> ListPage(argument.isEmpty() ? 1 : Integer.parseInt(argument), session, out);
+            case "BALANCE" -> out.println("OK " + Balance(session));
+            case "ORDER" -> Order(argument, session, out);
+            case "FILTER" -> Filter(argument, session, out);
+            case "CLEAR" -> {
+                Read(() -> {
+                    session.view.RemoveFilters();
+                    return null;
+                });
+                out.println("OK");
+            }
+            case "IMPORT" -> Import(argument, out);
+            case "REPORT" -> Report(argument, out);
+            default -> out.println("ERR Neznámý požadavek: " + parts[0]);
+        }
+    }
+
+    private void Add(String argument, PrintWriter out) {
+        Record r = Requests.ParseRecord(argument);
+        Write(() -> {
+            records.add(r);
+            persistence.LogAdd(r);
+            persistence.CompactIfNeeded(records);
+            return null;
+        });
+        out.println("OK " + r.getId());
+    }
+
+    private void Remove(long id, PrintWriter out) {
+        Record removed = Write(() -> {
+            Record r = records.FindById(id);
+            if (r != null) {
+                records.RemoveById(id);
+                persistence.LogRemove(r);
+                persistence.CompactIfNeeded(records);
+            }
+            return r;
+        });
+        out.println(removed != null ? "OK" : "ERR Neexistující záznam " + id);
+    }
+
+    private void ListPage(int page, Session session, PrintWriter out) {
+        int pageSize = RecordRenderer.defaultPageSize;
+        StringBuilder lines = new StringBuilder();
+
+        String status = Read(() -> {
+            RecordView view = session.view;
+            int count = view.size();
+            int pageCount = Math.max(1, (count + pageSize - 1) / pageSize);
+            int current = Math.min(Math.max(page, 1), pageCount);
+            int from = (current - 1) * pageSize;
+
+            // The page is walked off the sorted index, whatever order the collection is in after changes
+            Predicate<Record> predicate = view.isFilterActive() ? view::Matches : null;
+            List<Record> pageRecords = session.order.byAmount()
+                    ? records.PageByAmount(from, pageSize, session.order.desc(), predicate)
+                    : records.PageByDate(from, pageSize, session.order.desc(), predicate);
+            for (Record r : pageRecords) {
+                Requests.AppendRecord(lines, r);
+            }
+            return "OK " + current + "/" + pageCount + " " + count;
+        });
+
+        out.append(lines);
+        out.println(status);
+    }
+
+    private BigDecimal Balance(Session session) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0 && !session.view.isFilterActive()) {
+            BigDecimal total = records.getAggregates().getTotal();
+            if (lock.validate(stamp))
+                return total;
+        }
+        return Read(() -> session.view.getAggregates().getTotal());
+    }
+
+    private void Order(String argument, Session session, PrintWriter out) {
+        session.order = Requests.ParseOrder(argument);
+        out.println("OK");
+    }
+
+    private void Filter(String argument, Session session, PrintWriter out) {
+        Requests.ViewFilter filter = Requests.ParseFilter(argument);
+        ReadFilter(() -> filter.ApplyTo(session.view));
+        out.println("OK");
+    }
+
+    private void Import(String path, PrintWriter out) throws IOException {
+        // Parsing does not touch the collection, only adding the records does
+        CsvImporter.Result result = CsvImporter.Import(Path.of(path));
+        Write(() -> {
+            records.addAll(result.getRecords());
+            persistence.Compact(records);
+            return null;
+        });
+        for (String row : result.getRejectedRows()) {
+            out.println(row);
+        }
+        out.println("OK " + result.getRecords().size() + " " + result.getRejectedRows().size());
+    }
+
+    private void Report(String argument, PrintWriter out) {
+        YearMonth[] months = Requests.ParseMonths(argument);
+
+        StringBuilder lines = new StringBuilder();
+        Read(() -> {
+            Requests.AppendReport(lines, records.getRollup(), months[0], months[1]);
+            return null;
+        });
+
+        out.append(lines);
+        out.println("OK");
+    }
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private interface FilterAction {
+        void run() throws IOException;
+    }
+
+    private <T> T Read(Action<T> action) {
+        long stamp = lock.readLock();
+        try {
+            return action.run();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void ReadFilter(FilterAction action) {
+        Read(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private <T> T Write(Action<T> action) {
+        long stamp = lock.writeLock();
+        try {
+            return action.run();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Stops accepting connections, rewrites the saved file and closes its journal
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        serverSocket.close();
+        connections.shutdownNow();
+
+        long stamp = lock.writeLock();
+        try {
+            persistence.Compact(records);
+            persistence.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
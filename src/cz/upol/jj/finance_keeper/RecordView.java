@@ -0,0 +1,330 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A filtered view of a ListOfRecords that does not copy it.
+ * <p>
+ * Filters only get combined into a predicate, the matching records are looked up when the view is displayed and
+ * remembered until the underlying collection or the filters change. The view follows the order of the collection.
+ * Filters by date, amount and sign alone are looked up in the columns of the collection without testing the records.
+ * Adding a filter reads the partitions of the saved file within the date range of the view, so an unfiltered view
+ * shows only the partitions read so far.
+ */
+public class RecordView {
+    private final ListOfRecords records;
+
+    private Predicate<Record> predicate = record -> true;
+    private boolean filterActive = false;
+
+    // The narrowest date range of all active date filters (both exclusive), lets the date index skip the rest
+    private LocalDate dateFrom = LocalDate.MIN;
+    private LocalDate dateTo = LocalDate.MAX;
+    // Text of the last reason filter, lets the reason index skip records with other reasons
+    private String reasonText = null;
+    // Bounds of all amount and sign filters, while there are no other than date ones they describe the view fully
+    private ColumnarRecordStore.AmountRange amountRange = ColumnarRecordStore.AmountRange.all;
+    private boolean onlyColumnFilters = true;
+
+    private List<Record> matching = null;
+    private int matchingModificationCount;
+
+    // Without a filter the totals of the collection are used, the view computes its own once filtered
+    private final Aggregates aggregates = new Aggregates();
+    private boolean aggregatesValid = false;
+
+    // Keeps the totals of the view up to date with the collection, unless they are to be recomputed anyway
+    private final RecordIndex listener = new RecordIndex() {
+        @Override
+        public void added(Record r) {
+            if (aggregatesValid && predicate.test(r))
+                aggregates.added(r);
+        }
+
+        @Override
+        public void removed(Record r) {
+            if (aggregatesValid && predicate.test(r))
+                aggregates.removed(r);
+        }
+
+        @Override
+        public void cleared() {
+            aggregates.cleared();
+        }
+    };
+
+    /**
+     * Initializes a view showing all records of a given collection
+     *
+     * @param records The collection to view
+     */
+    public RecordView(ListOfRecords records) {
+        this.records = records;
+
+        records.AddIndex(listener);
+    }
+
+    /**
+     * Stops keeping the totals of the view up to date with the collection, the view must not be used afterwards
+     */
+    void Detach() {
+        records.RemoveIndex(listener);
+    }
+
+    public boolean isFilterActive() {
+        return filterActive;
+    }
+
+    /**
+     * @param r A record of the collection
+     * @return Whether the record matches all filters of the view
+     */
+    public boolean Matches(Record r) {
+        return predicate.test(r);
+    }
+
+    /**
+     * Adds a filter to the view
+     *
+     * @param filter A predicate the displayed records have to match as well
+     * @throws IOException
+     */
+    public void Filter(Predicate<Record> filter) throws IOException {
+        onlyColumnFilters = false;
+        AddFilter(filter);
+    }
+
+    private void AddFilter(Predicate<Record> filter) throws IOException {
+        records.LoadBetween(dateFrom, dateTo);
+
+        predicate = predicate.and(filter);
+        filterActive = true;
+        matching = null;
+        aggregatesValid = false;
+    }
+
+    /**
+     * Adds a date filter to the view
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @throws IOException
+     */
+    public void FilterByDate(LocalDate from, LocalDate to) throws IOException {
+        if (from.isAfter(dateFrom))
+            dateFrom = from;
+        if (to.isBefore(dateTo))
+            dateTo = to;
+
+        AddFilter(ListOfRecords.DatePredicate(from, to));
+    }
+
+    /**
+     * Adds an amount filter to the view
+     *
+     * @param from A from amount (exclusive)
+     * @param to   A to amount (exclusive)
+     * @throws IOException
+     */
+    public void FilterByAmount(BigDecimal from, BigDecimal to) throws IOException {
+        amountRange = amountRange.Above(from, false).Below(to, false);
+        AddFilter(ListOfRecords.AmountPredicate(from, to));
+    }
+
+    /**
+     * Adds an amount filter to the view, without a bound on the side that is not given
+     *
+     * @param min A from amount (inclusive), null for no lower bound
+     * @param max A to amount (inclusive), null for no upper bound
+     * @throws IOException
+     */
+    public void FilterByAmountRange(BigDecimal min, BigDecimal max) throws IOException {
+        if (min != null)
+            amountRange = amountRange.Above(min, true);
+        if (max != null)
+            amountRange = amountRange.Below(max, true);
+        AddFilter(ListOfRecords.AmountRangePredicate(min, max));
+    }
+
+    /**
+     * Adds a filter keeping only income (signum 1) or only expenses (signum -1) to the view
+     *
+     * @param signum The sign of the kept amounts
+     * @throws IOException
+     */
+    public void FilterBySign(int signum) throws IOException {
+        if (signum >= 0)
+            amountRange = amountRange.Above(BigDecimal.ZERO, signum == 0);
+        if (signum <= 0)
+            amountRange = amountRange.Below(BigDecimal.ZERO, signum == 0);
+        AddFilter(ListOfRecords.SignPredicate(signum));
+    }
+
+    /**
+     * Adds a filter by a part of the reason to the view, regardless of case and diacritics
+     *
+     * @param text The searched text
+     * @throws IOException
+     */
+    public void FilterByReason(String text) throws IOException {
+        reasonText = text;
+        AddFilter(records.ReasonPredicate(text));
+    }
+
+    /**
+     * Removes all filters, the view then shows the whole collection
+     */
+    public void RemoveFilters() {
+        predicate = record -> true;
+        filterActive = false;
+        dateFrom = LocalDate.MIN;
+        dateTo = LocalDate.MAX;
+        reasonText = null;
+        amountRange = ColumnarRecordStore.AmountRange.all;
+        onlyColumnFilters = true;
+        matching = null;
+        aggregatesValid = false;
+    }
+
+    /**
+     * @return The displayed records in the order of the collection
+     */
+    public List<Record> getRecords() {
+        if (!filterActive)
+            return records;
+
+        if (matching == null || matchingModificationCount != records.getModificationCount()) {
+            Metrics.Timer timer = Metrics.Start(Metrics.Operation.FILTER);
+            matching = FindMatching(timer);
+            matchingModificationCount = records.getModificationCount();
+        }
+        return matching;
+    }
+
+    // Stops the timer with the number of records the predicate was tested on
+    private List<Record> FindMatching(Metrics.Timer timer) {
+        Comparator<Record> ordering = records.getOrdering();
+
+        if (ordering != null && reasonText != null) {
+            List<Record> found = records.FindByReason(reasonText);
+            int scanned = found.size();
+            found.removeIf(predicate.negate());
+            found.sort(ordering);
+            timer.Stop(scanned, 0);
+            return found;
+        }
+
+        if (ordering != null && reasonText == null && onlyColumnFilters) {
+            List<Record> found = records.FindInColumns(dateFrom, dateTo, amountRange, timer);
+            if (found != null) {
+                found.sort(ordering);
+                return found;
+            }
+        }
+
+        if (ordering != null && (!dateFrom.equals(LocalDate.MIN) || !dateTo.equals(LocalDate.MAX))) {
+            List<Record> between = records.RecordsBetween(dateFrom, dateTo);
+            List<Record> found = new ArrayList<>();
+            for (Record r : between) {
+                if (predicate.test(r))
+                    found.add(r);
+            }
+            found.sort(ordering);
+            timer.Stop(between.size(), 0);
+            return found;
+        }
+
+        List<Record> found = new ArrayList<>();
+        for (Record r : records) {
+            if (predicate.test(r))
+                found.add(r);
+        }
+        timer.Stop(records.size(), 0);
+        return found;
+    }
+
+    /**
+     * Finds the displayed records with the highest or lowest amounts, walking the amount index of the collection from
+     * its end. With a filter the walk stops as soon as 'n' records match.
+     *
+     * @param n    Number of records to find
+     * @param desc Highest (true) or lowest (false) amounts
+     * @return At most 'n' records, ordered from the highest/lowest amount
+     */
+    public List<Record> TopByAmount(int n, boolean desc) {
+        return records.TopByAmount(n, desc, filterActive ? this::Matches : null);
+    }
+
+    /**
+     * Finds the newest or oldest displayed records, walking the date index of the collection from its end. With a
+     * filter the walk stops as soon as 'n' records match.
+     *
+     * @param n    Number of records to find
+     * @param desc Newest (true) or oldest (false) records
+     * @return At most 'n' records, ordered from the newest/oldest
+     */
+    public List<Record> TopByDate(int n, boolean desc) {
+        return records.TopByDate(n, desc, filterActive ? this::Matches : null);
+    }
+
+    /**
+     * Returns a displayed record
+     *
+     * @param index The position of the record in the view
+     * @return The record
+     */
+    public Record get(int index) {
+        return getRecords().get(index);
+    }
+
+    public int size() {
+        return getRecords().size();
+    }
+
+    /**
+     * @return Totals of the displayed records
+     */
+    public Aggregates getAggregates() {
+        if (!filterActive)
+            return records.getAggregates();
+
+        if (!aggregatesValid) {
+            aggregates.cleared();
+            aggregates.addedAll(getRecords());
+            aggregatesValid = true;
+        }
+        return aggregates;
+    }
+
+    /**
+     * Prints the displayed records with a header and the running balance of the whole collection after every record
+     */
+    public void print() {
+        RecordRenderer renderer = new RecordRenderer();
+        renderer.setBalances(records::RunningBalances);
+        renderer.RenderAll(getRecords(), false);
+    }
+
+    /**
+     * Prints the displayed records with an added 'ID' column (IDs match positions in the view)
+     */
+    public void printWithIndices() {
+        new RecordRenderer().RenderAll(getRecords(), true);
+    }
+
+    /**
+     * Prints the total amount of the displayed records with formatting, without a filter the total of all records
+     */
+    public void printTotalAmount() {
+        if (!filterActive)
+            records.printTotalAmount();
+        else
+            ListOfRecords.PrintTotalAmount(getAggregates().getTotal());
+    }
+}
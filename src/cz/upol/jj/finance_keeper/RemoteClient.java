@@ -0,0 +1,42 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * A console for a RecordServer: sends every entered line as a request and prints the response
+ */
+public class RemoteClient {
+    /**
+     * Connects to a server on this computer and passes requests from the standard input until 'QUIT' or its end
+     *
+     * @param port The port the server listens on
+     * @throws IOException
+     */
+    public static void Run(int port) throws IOException {
+        Scanner scanner = new Scanner(System.in).useDelimiter(System.lineSeparator());
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            System.out.println("Připojeno k serveru na portu " + port + ", QUIT pro odpojení.");
+
+            while (scanner.hasNext()) {
+                String request = scanner.next();
+                out.println(request);
+
+                String line;
+                while ((line = in.readLine()) != null) {
+                    System.out.println(line);
+                    if (line.startsWith("OK") || line.startsWith("ERR"))
+                        break;
+                }
+                if (line == null || request.strip().equalsIgnoreCase("QUIT"))
+                    return;
+            }
+        }
+    }
+}
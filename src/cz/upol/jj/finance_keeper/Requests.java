@@ -0,0 +1,174 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Parsing of requests and formatting of responses shared by the RecordServer and the BatchRunner, so that both speak
+ * the same line protocol. Malformed arguments throw IllegalArgumentException or DateTimeParseException.
+ */
+final class Requests {
+    private Requests() {
+    }
+
+    /**
+     * An order given by 'DATE|AMOUNT ASC|DESC'
+     */
+    record Order(boolean byAmount, boolean desc) {
+    }
+
+    /**
+     * A filter to be added to a view or to a streaming query
+     */
+    record ViewFilter(ViewAction onView, Consumer<StreamingQuery> onQuery) {
+        void ApplyTo(RecordView view) throws IOException {
+            onView.Apply(view);
+        }
+
+        void ApplyTo(StreamingQuery query) {
+            onQuery.accept(query);
+        }
+    }
+
+    interface ViewAction {
+        void Apply(RecordView view) throws IOException;
+    }
+
+    /**
+     * Splits a request into its name (in upper case) and its argument
+     *
+     * @param request A request line
+     * @return The name and the argument, which is empty if there is none
+     */
+    static String[] Split(String request) {
+        String[] parts = request.strip().split(" ", 2);
+        return new String[]{parts[0].toUpperCase(Locale.ROOT), parts.length > 1 ? parts[1].strip() : ""};
+    }
+
+    /**
+     * @param argument 'D.M.RRRR;amount;reason'
+     * @return A new record
+     */
+    static Record ParseRecord(String argument) {
+        String[] fields = argument.split(";", 3);
+        if (fields.length < 3)
+            throw new IllegalArgumentException("Missing fields");
+
+        return new Record(TextCodec.ParseDate(fields[0].strip()), fields[2].strip(),
+                TextCodec.ParseAmount(fields[1].strip()));
+    }
+
+    /**
+     * @param argument 'DATE|AMOUNT ASC|DESC'
+     * @return The order
+     */
+    static Order ParseOrder(String argument) {
+        String[] fields = argument.toUpperCase(Locale.ROOT).split("\\s+");
+        if (fields.length != 2)
+            throw new IllegalArgumentException("Expected a key and a direction");
+
+        boolean byAmount = switch (fields[0]) {
+            case "DATE" -> false;
+            case "AMOUNT" -> true;
+            default -> throw new IllegalArgumentException(fields[0]);
+        };
+        boolean desc = switch (fields[1]) {
+            case "ASC" -> false;
+            case "DESC" -> true;
+            default -> throw new IllegalArgumentException(fields[1]);
+        };
+        return new Order(byAmount, desc);
+    }
+
+    /**
+     * @param argument 'DATE from to', 'AMOUNT from to', 'INCOME', 'EXPENSES' or 'REASON text', bounds are inclusive
+     *                 and '-' leaves one out
+     * @return The filter
+     */
+    static ViewFilter ParseFilter(String argument) {
+        String[] fields = argument.split("\\s+", 2);
+        String kind = fields[0].toUpperCase(Locale.ROOT);
+        String rest = fields.length > 1 ? fields[1].strip() : "";
+
+        switch (kind) {
+            case "DATE" -> {
+                String[] bounds = rest.split("\\s+");
+                if (bounds.length != 2)
+                    throw new IllegalArgumentException("Expected two dates");
+                LocalDate from = bounds[0].equals("-") ? LocalDate.MIN
+                        : TextCodec.ParseDate(bounds[0]).minusDays(1);
+                LocalDate to = bounds[1].equals("-") ? LocalDate.MAX
+                        : TextCodec.ParseDate(bounds[1]).plusDays(1);
+                return new ViewFilter(view -> view.FilterByDate(from, to), query -> query.FilterByDate(from, to));
+            }
+            case "AMOUNT" -> {
+                String[] bounds = rest.split("\\s+");
+                if (bounds.length != 2)
+                    throw new IllegalArgumentException("Expected two amounts");
+                BigDecimal from = bounds[0].equals("-") ? null : TextCodec.ParseAmount(bounds[0]);
+                BigDecimal to = bounds[1].equals("-") ? null : TextCodec.ParseAmount(bounds[1]);
+                return new ViewFilter(view -> view.FilterByAmountRange(from, to),
+                        query -> query.Filter(ListOfRecords.AmountRangePredicate(from, to)));
+            }
+            case "INCOME" -> {
+                return new ViewFilter(view -> view.FilterBySign(1),
+                        query -> query.Filter(ListOfRecords.SignPredicate(1)));
+            }
+            case "EXPENSES" -> {
+                return new ViewFilter(view -> view.FilterBySign(-1),
+                        query -> query.Filter(ListOfRecords.SignPredicate(-1)));
+            }
+            case "REASON" -> {
+                if (rest.isEmpty())
+                    throw new IllegalArgumentException("Missing text");
+                return new ViewFilter(view -> view.FilterByReason(rest), query -> query.FilterByReason(rest));
+            }
+            default -> throw new IllegalArgumentException(kind);
+        }
+    }
+
+    /**
+     * @param argument 'M.RRRR M.RRRR'
+     * @return The first and the last month
+     */
+    static YearMonth[] ParseMonths(String argument) {
+        String[] months = argument.split("\\s+");
+        if (months.length != 2)
+            throw new IllegalArgumentException("Expected two months");
+        return new YearMonth[]{YearMonth.parse(months[0], PrintFormats.monthFormat),
+                YearMonth.parse(months[1], PrintFormats.monthFormat)};
+    }
+
+    /**
+     * Appends a record as an 'id;D.M.RRRR;amount;reason' line
+     */
+    static void AppendRecord(StringBuilder lines, Record r) {
+        lines.append(r.getId()).append(';');
+        TextCodec.AppendDate(lines, r.getDate()).append(';')
+                .append(r.getAmount().toPlainString()).append(';')
+                .append(r.getReason()).append(System.lineSeparator());
+    }
+
+    /**
+     * Appends the totals by month and reason as 'M.RRRR;count;total;min;max;reason' lines
+     */
+    static void AppendReport(StringBuilder lines, MonthlyRollup rollup, YearMonth from, YearMonth to) {
+        ReasonDictionary dictionary = ReasonDictionary.getShared();
+        for (Map.Entry<YearMonth, Map<Integer, Aggregates>> month : rollup.getMonths(from, to).entrySet()) {
+            for (Map.Entry<Integer, Aggregates> cell : month.getValue().entrySet()) {
+                Aggregates totals = cell.getValue();
+                lines.append(month.getKey().format(PrintFormats.monthFormat)).append(';')
+                        .append(totals.getCount()).append(';')
+                        .append(totals.getTotal().toPlainString()).append(';')
+                        .append(totals.getMin().toPlainString()).append(';')
+                        .append(totals.getMax().toPlainString()).append(';')
+                        .append(dictionary.ReasonOf(cell.getKey())).append(System.lineSeparator());
+            }
+        }
+    }
+}
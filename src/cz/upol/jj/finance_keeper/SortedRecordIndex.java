@@ -0,0 +1,97 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.*;
+
+/**
+ * Records of a ListOfRecords kept sorted by a comparator, records that compare equal stay in the order they were
+ * added in. Single records are inserted at their place, bigger batches are sorted in (in parallel if large enough).
+ */
+class SortedRecordIndex implements RecordIndex {
+    // Below this size a parallel sort is not worth splitting the work
+    private static final int parallelSortThreshold = 1 << 13;
+
+    protected final ArrayList<Record> sorted = new ArrayList<>();
+    private final Comparator<Record> comparator;
+
+    /**
+     * Initializes an empty index
+     *
+     * @param comparator The order to keep the records in
+     */
+    SortedRecordIndex(Comparator<Record> comparator) {
+        this.comparator = comparator;
+    }
+
+    @Override
+    public void added(Record r) {
+        sorted.add(UpperBound(r), r);
+    }
+
+    @Override
+    public void addedAll(Collection<? extends Record> records) {
+        // Inserting one by one shifts the whole index each time, sorting once is cheaper for bigger batches
+        if (records.size() < 16) {
+            RecordIndex.super.addedAll(records);
+            return;
+        }
+
+        sorted.addAll(records);
+        if (sorted.size() < parallelSortThreshold) {
+            sorted.sort(comparator);
+            return;
+        }
+
+        Record[] all = sorted.toArray(new Record[0]);
+        Arrays.parallelSort(all, comparator);
+        sorted.clear();
+        sorted.addAll(Arrays.asList(all));
+    }
+
+    @Override
+    public void removed(Record r) {
+        for (int i = LowerBound(r); i < sorted.size() && comparator.compare(sorted.get(i), r) == 0; i++) {
+            if (sorted.get(i) == r) {
+                sorted.remove(i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void cleared() {
+        sorted.clear();
+    }
+
+    /**
+     * @return A read-only view of all records in ascending order, valid until the collection changes
+     */
+    public List<Record> getSorted() {
+        return Collections.unmodifiableList(sorted);
+    }
+
+    // The first position with a record not ordered before the given one
+    private int LowerBound(Record r) {
+        int low = 0, high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(sorted.get(middle), r) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    // The first position with a record ordered after the given one
+    private int UpperBound(Record r) {
+        int low = 0, high = sorted.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(sorted.get(middle), r) > 0)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,290 @@
+package cz.upol.jj.finance_keeper;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A query over a saved file that goes through it record by record instead of reading it into a ListOfRecords, so the
+ * file may be larger than the memory of the program.
+ * <p>
+ * Filters are tested on every record as it is read and totals are summed along the way. Ordering uses an ExternalSort,
+ * which keeps at most 'runLength' records in memory and spills the rest to temporary files. Partitions of years
+ * outside of a date filter are skipped by their summaries in the manifest. Changes logged in the journal of the file
+ * are part of the result. From the command line, a query of the saved file is run by the '--query' option.
+ */
+public class StreamingQuery {
+    /**
+     * Totals of the records matching a query
+     */
+    public record Totals(long count, BigDecimal total, BigDecimal income, BigDecimal expenses, BigDecimal min,
+                         BigDecimal max, LocalDate first, LocalDate last) {
+        /**
+         * Prints the total the same way ListOfRecords does
+         */
+        public void printTotalAmount() {
+            ListOfRecords.PrintTotalAmount(total);
+        }
+    }
+
+    private final String filename;
+    private final int runLength;
+
+    private Predicate<Record> predicate = record -> true;
+    // Bounds (exclusive) of all date filters, used to skip partitions
+    private LocalDate from = LocalDate.MIN;
+    private LocalDate to = LocalDate.MAX;
+    private Comparator<Record> ordering = null;
+
+    /**
+     * Initializes a query of all records of a file in the order they are saved in
+     *
+     * @param filename The name of the file
+     */
+    public StreamingQuery(String filename) {
+        this(filename, ExternalSort.defaultRunLength);
+    }
+
+    /**
+     * Initializes a query of all records of a file in the order they are saved in
+     *
+     * @param filename  The name of the file
+     * @param runLength Number of records an ordered query keeps in memory
+     */
+    public StreamingQuery(String filename, int runLength) {
+        if (runLength < 1)
+            throw new IllegalArgumentException("Run length has to be positive");
+        this.filename = filename;
+        this.runLength = runLength;
+    }
+
+    /**
+     * Keeps only records between two dates
+     *
+     * @param from A from date (exclusive)
+     * @param to   A to date (exclusive)
+     * @return This query
+     */
+    public StreamingQuery FilterByDate(LocalDate from, LocalDate to) {
+        if (from.isAfter(this.from))
+            this.from = from;
+        if (to.isBefore(this.to))
+            this.to = to;
+        return Filter(ListOfRecords.DatePredicate(from, to));
+    }
+
+    /**
+     * Keeps only records between two amounts
+     *
+     * @param from A from amount (exclusive)
+     * @param to   A to amount (exclusive)
+     * @return This query
+     */
+    public StreamingQuery FilterByAmount(BigDecimal from, BigDecimal to) {
+        return Filter(ListOfRecords.AmountPredicate(from, to));
+    }
+
+    /**
+     * Keeps only records containing a given text in their reason, regardless of case and diacritics
+     *
+     * @param text The searched text
+     * @return This query
+     */
+    public StreamingQuery FilterByReason(String text) {
+        String normalizedText = ReasonIndex.Normalize(text);
+        // Every distinct reason is normalized once, not once per record
+        Map<Integer, Boolean> matches = new HashMap<>();
+        return Filter(record -> matches.computeIfAbsent(record.getReasonId(),
+                reasonId -> ReasonIndex.Normalize(record.getReason()).contains(normalizedText)));
+    }
+
+    /**
+     * Keeps only records matching a given predicate, in addition to the previous filters
+     *
+     * @param predicate The predicate
+     * @return This query
+     */
+    public StreamingQuery Filter(Predicate<Record> predicate) {
+        this.predicate = this.predicate.and(predicate);
+        return this;
+    }
+
+    /**
+     * Orders the result by date
+     *
+     * @param desc Descending/ascending order
+     * @return This query
+     */
+    public StreamingQuery OrderByDate(boolean desc) {
+        ordering = desc ? Comparator.comparing(Record::getDate, Comparator.reverseOrder())
+                : Comparator.comparing(Record::getDate);
+        return this;
+    }
+
+    /**
+     * Orders the result by amount
+     *
+     * @param desc Descending/ascending order
+     * @return This query
+     */
+    public StreamingQuery OrderByAmount(boolean desc) {
+        ordering = desc ? Comparator.comparing(Record::getAmount, Comparator.reverseOrder())
+                : Comparator.comparing(Record::getAmount);
+        return this;
+    }
+
+    /**
+     * Passes every matching record to an action, in the order of the query
+     *
+     * @param action Called with every matching record
+     * @return Number of matching records
+     * @throws IOException
+     */
+    public long ForEach(Consumer<Record> action) throws IOException {
+        long[] count = {0};
+        Consumer<Record> counting = r -> {
+            count[0]++;
+            action.accept(r);
+        };
+
+        if (ordering == null) {
+            Scan(counting);
+            return count[0];
+        }
+
+        try (ExternalSort sort = new ExternalSort(ordering, runLength)) {
+            Scan(sort);
+            sort.Finish(counting);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        return count[0];
+    }
+
+    /**
+     * Finds the first matching records in the order of the query with a bounded heap, without sorting the rest
+     *
+     * @param n Number of records to find
+     * @return At most 'n' records in the order of the query
+     * @throws IOException
+     */
+    public List<Record> Top(int n) throws IOException {
+        if (ordering == null)
+            throw new IllegalStateException("The query has no order");
+
+        TopRecords top = new TopRecords(n, ordering);
+        Scan(top);
+        return top.getResult();
+    }
+
+    /**
+     * Sums up the matching records without ordering them
+     *
+     * @return The totals
+     * @throws IOException
+     */
+    public Totals Aggregate() throws IOException {
+        TotalsBuilder totals = new TotalsBuilder();
+        Scan(totals);
+        return totals.Build();
+    }
+
+    /**
+     * Prints the matching records with a header, a page at a time
+     *
+     * @throws IOException
+     */
+    public void print() throws IOException {
+        RecordRenderer renderer = new RecordRenderer();
+        renderer.BeginStreamed();
+        try {
+            ForEach(renderer::RenderStreamed);
+        } finally {
+            renderer.EndStreamed();
+        }
+    }
+
+    private static final class TotalsBuilder implements Consumer<Record> {
+        private long count = 0;
+        private BigDecimal income = BigDecimal.ZERO;
+        private BigDecimal expenses = BigDecimal.ZERO;
+        private BigDecimal min = null;
+        private BigDecimal max = null;
+        private LocalDate first = null;
+        private LocalDate last = null;
+
+        @Override
+        public void accept(Record r) {
+            BigDecimal amount = r.getAmount();
+            count++;
+            if (amount.signum() > 0)
+                income = income.add(amount);
+            else
+                expenses = expenses.add(amount);
+            if (min == null || amount.compareTo(min) < 0)
+                min = amount;
+            if (max == null || amount.compareTo(max) > 0)
+                max = amount;
+            if (first == null || r.getDate().isBefore(first))
+                first = r.getDate();
+            if (last == null || r.getDate().isAfter(last))
+                last = r.getDate();
+        }
+
+        Totals Build() {
+            return new Totals(count, income.add(expenses), income, expenses, min, max, first, last);
+        }
+    }
+
+    // Reads the file and its journal, passing the matching records to an action in the order of the file
+    private void Scan(Consumer<Record> action) throws IOException {
+        Metrics.Timer timer = Metrics.Start(Metrics.Operation.QUERY);
+        long[] scanned = {0};
+        long bytes = 0;
+
+        Journal.Pending pending = Journal.ReadPending(filename);
+        Consumer<Record> matching = r -> {
+            if (predicate.test(r))
+                action.accept(r);
+        };
+        Consumer<Record> saved = r -> {
+            scanned[0]++;
+            if (pending.Keeps(r))
+                matching.accept(r);
+        };
+
+        try {
+            Path path = Path.of(filename);
+            if (PartitionedFile.IsManifest(path)) {
+                bytes += Files.size(path);
+                // After an interrupted compaction the summaries may not match the partitions
+                boolean summariesValid = !Files.exists(Path.of(filename + ".tmp"));
+                for (PartitionedFile.Summary summary : PartitionedFile.ReadManifest(path)) {
+                    if (summariesValid && (!summary.last().isAfter(from) || !summary.first().isBefore(to)))
+                        continue;
+                    bytes += RecordFile.Scan(PartitionedFile.PartitionPath(filename, summary.year()), saved);
+                }
+            } else if (RecordFile.IsRecordFile(path)) {
+                bytes += RecordFile.Scan(path, saved);
+            } else {
+                bytes += Files.size(path);
+                ListOfRecords.ReadOldFormat(path, saved);
+            }
+
+            for (Record r : pending.getAdded()) {
+                scanned[0]++;
+                matching.accept(r);
+            }
+        } finally {
+            timer.Stop(scanned[0], bytes);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package cz.upol.jj.finance_keeper;
+
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Parsing and formatting of dates (D.M.RRRR and RRRR-MM-DD) and amounts for the paths that handle every record:
+ * entering, loading, importing and printing records.
+ * <p>
+ * The text is read character by character into primitives, only the resulting LocalDate or BigDecimal gets created,
+ * so no DateTimeFormatter machinery and no copies of the text are involved. Malformed text throws the same exceptions
+ * as LocalDate.parse (DateTimeParseException) and the BigDecimal constructor (NumberFormatException) would. Amounts
+ * with more than 18 digits or an exponent are left to the BigDecimal constructor.
+ */
+final class TextCodec {
+    private static final int maxFastDigits = 18;
+
+    private TextCodec() {
+    }
+
+    /**
+     * Parses a date in the format of PrintFormats.dateFormat: day and month of one or two digits and a year of four,
+     * separated by dots
+     *
+     * @param text The date, without surrounding whitespace
+     * @return The date
+     * @throws DateTimeParseException When the text is not a valid date
+     */
+    static LocalDate ParseDate(CharSequence text) throws DateTimeParseException {
+        int dot = Find(text, '.', 0);
+        int secondDot = Find(text, '.', dot + 1);
+
+        int day = ParseField(text, 0, dot, 1, 2);
+        int month = ParseField(text, dot + 1, secondDot, 1, 2);
+        int year = ParseField(text, secondDot + 1, text.length(), 4, 4);
+        return Of(text, year, month, day);
+    }
+
+    /**
+     * Parses a date in the ISO format RRRR-MM-DD as written by LocalDate.toString, dates with years of other than four
+     * digits are left to LocalDate.parse
+     *
+     * @param text The date, without surrounding whitespace
+     * @return The date
+     * @throws DateTimeParseException When the text is not a valid date
+     */
+    static LocalDate ParseIsoDate(CharSequence text) throws DateTimeParseException {
+        if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-')
+            return LocalDate.parse(text);
+
+        int year = ParseField(text, 0, 4, 4, 4);
+        int month = ParseField(text, 5, 7, 2, 2);
+        int day = ParseField(text, 8, 10, 2, 2);
+        return Of(text, year, month, day);
+    }
+
+    /**
+     * Parses an amount with an optional sign and '.' as the decimal separator, e.g. "-1250.50"
+     *
+     * @param text The amount, without surrounding whitespace
+     * @return The amount with as many decimal places as the text has
+     * @throws NumberFormatException When the text is not a number
+     */
+    static BigDecimal ParseAmount(CharSequence text) throws NumberFormatException {
+        return ParseAmount(text, '.', false);
+    }
+
+    /**
+     * Parses an amount with an optional sign and a given decimal separator, whitespace between digit groups may be
+     * skipped (as in "1 250,50" of bank statements)
+     *
+     * @param text             The amount
+     * @param decimalSeparator The decimal separator, '.' is accepted as well
+     * @param skipWhitespace   Whether whitespace anywhere in the text is skipped
+     * @return The amount with as many decimal places as the text has
+     * @throws NumberFormatException When the text is not a number
+     */
+    static BigDecimal ParseAmount(CharSequence text, char decimalSeparator, boolean skipWhitespace)
+            throws NumberFormatException {
+        long unscaled = 0;
+        int digits = 0;
+        boolean anyDigit = false;
+        int scale = -1;
+        boolean negative = false;
+        boolean signAllowed = true;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Leading zeros do not count, they cannot overflow
+                if (unscaled != 0 || c != '0')
+                    digits++;
+                if (digits > maxFastDigits)
+                    return SlowAmount(text, decimalSeparator, skipWhitespace);
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0)
+                    scale++;
+                anyDigit = true;
+                signAllowed = false;
+            } else if ((c == '.' || c == decimalSeparator) && scale < 0) {
+                scale = 0;
+                signAllowed = false;
+            } else if ((c == '-' || c == '+') && signAllowed) {
+                negative = c == '-';
+                signAllowed = false;
+            } else if (skipWhitespace && (Character.isWhitespace(c) || Character.isSpaceChar(c))) {
+                continue;
+            } else {
+                // An exponent or something that is not a number at all
+                return SlowAmount(text, decimalSeparator, skipWhitespace);
+            }
+        }
+
+        if (!anyDigit)
+            throw new NumberFormatException("Not an amount: " + text);
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    /**
+     * Appends a date in the format of PrintFormats.dateFormat
+     *
+     * @param out  Where to append the date
+     * @param date The date
+     * @return The same builder
+     */
+    static StringBuilder AppendDate(StringBuilder out, LocalDate date) {
+        int year = date.getYear();
+        if (year < 1 || year > 9999)
+            return out.append(date.format(PrintFormats.dateFormat));
+
+        out.append(date.getDayOfMonth()).append('.').append(date.getMonthValue()).append('.');
+        if (year < 1000)
+            out.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        return out.append(year);
+    }
+
+    /**
+     * @param date A date
+     * @return The date in the format of PrintFormats.dateFormat
+     */
+    static String FormatDate(LocalDate date) {
+        return AppendDate(new StringBuilder(10), date).toString();
+    }
+
+    private static int Find(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c)
+                return i;
+        }
+        throw new DateTimeParseException("Text '" + text + "' could not be parsed", text, text.length());
+    }
+
+    private static int ParseField(CharSequence text, int start, int end, int minDigits, int maxDigits) {
+        if (end - start < minDigits || end - start > maxDigits)
+            throw new DateTimeParseException("Text '" + text + "' could not be parsed at index " + start, text, start);
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                throw new DateTimeParseException("Text '" + text + "' could not be parsed at index " + i, text, i);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static LocalDate Of(CharSequence text, int year, int month, int day) {
+        try {
+            return LocalDate.of(year, month, day);
+        } catch (DateTimeException exception) {
+            throw new DateTimeParseException("Text '" + text + "' could not be parsed: " + exception.getMessage(),
+                    text, 0, exception);
+        }
+    }
+
+    private static BigDecimal SlowAmount(CharSequence text, char decimalSeparator, boolean skipWhitespace) {
+        StringBuilder amount = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == decimalSeparator)
+                amount.append('.');
+            else if (!skipWhitespace || !(Character.isWhitespace(c) || Character.isSpaceChar(c)))
+                amount.append(c);
+        }
+        return new BigDecimal(amount.toString());
+    }
+}
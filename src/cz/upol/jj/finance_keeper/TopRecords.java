@@ -0,0 +1,52 @@
+package cz.upol.jj.finance_keeper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the first 'n' of the records passed to it in a given order, without sorting all of them.
+ * <p>
+ * The records are held in a heap of at most 'n' records with the last of them on top, a new record only replaces it
+ * when it comes before it. Going through 'm' records thus takes O(m log n) time and O(n) memory.
+ */
+class TopRecords implements Consumer<Record> {
+    private final int n;
+    private final Comparator<Record> ordering;
+    private final PriorityQueue<Record> heap;
+
+    /**
+     * Initializes an empty selection
+     *
+     * @param n        Number of records to keep
+     * @param ordering The order, records ordered first are kept
+     */
+    TopRecords(int n, Comparator<Record> ordering) {
+        if (n < 0)
+            throw new IllegalArgumentException("Number of records cannot be negative");
+        this.n = n;
+        this.ordering = ordering;
+        heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1024)), ordering.reversed());
+    }
+
+    @Override
+    public void accept(Record r) {
+        if (heap.size() < n)
+            heap.add(r);
+        else if (n > 0 && ordering.compare(r, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(r);
+        }
+    }
+
+    /**
+     * @return The kept records in the order
+     */
+    List<Record> getResult() {
+        List<Record> result = new ArrayList<>(heap);
+        result.sort(ordering);
+        return result;
+    }
+}